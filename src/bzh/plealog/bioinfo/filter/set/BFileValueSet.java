@@ -0,0 +1,376 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.filter.set;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
+import bzh.plealog.bioinfo.api.filter.BDataAccessors;
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.api.filter.BRuleException;
+import bzh.plealog.bioinfo.api.filter.BRuleFactory;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+
+/**
+ * This is the value of a "value in set" rule whose values are listed in a text
+ * file: one value per line; empty lines and lines starting with '#' are
+ * ignored. It is used with the strInSet and strNotInSet operators of the Hit
+ * Accession and Hit identifier accessors, to handle lists containing tens of
+ * thousands of entries.
+ * 
+ * Only the path of the file is serialized with the filter. Values are loaded
+ * the first time they are needed, within an open addressing hash table; an
+ * optional Bloom filter quickly rejects values that are not in the set. This
+ * set cannot be modified.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFileValueSet extends AbstractSet<String> {
+  //serialized fields: their names are the tags of the filter files
+  private String             path;
+  private boolean            bloomFilter;
+  private transient String[] _table;
+  private transient int      _size;
+  private transient long[]   _bloom;
+  private transient int      _bloomMask;
+
+  /** comment lines of a value file start with this character */
+  public static final char COMMENT_CHAR = '#';
+
+  //number of bits of the Bloom filter per value, and number of hash functions:
+  //about 1% of false positives
+  private static final int BLOOM_BITS_PER_VALUE = 10;
+  private static final int BLOOM_HASHES = 4;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFileValueSet");
+
+  /**
+   * Constructor used by the filter serializer.
+   */
+  private BFileValueSet(){
+  }
+
+  /**
+   * Constructor. The Bloom filter is enabled.
+   * 
+   * @param path the path of the file listing the values
+   */
+  public BFileValueSet(String path){
+    this(path, true);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param path the path of the file listing the values
+   * @param bloomFilter true to check values against a Bloom filter before
+   * looking for them in the hash table
+   */
+  public BFileValueSet(String path, boolean bloomFilter){
+    if (path==null)
+      throw new IllegalArgumentException("path cannot be null");
+    this.path = path;
+    this.bloomFilter = bloomFilter;
+  }
+
+  /**
+   * Figures out whether an operator is a set operator handled by this class.
+   */
+  public static boolean isSetOperator(String operator){
+    return BDataAccessors.OPE_FUNC_StrInSet.equals(operator) 
+        || BDataAccessors.OPE_FUNC_StrNotInSet.equals(operator);
+  }
+
+  /**
+   * Figures out whether the values of an accessor can be checked against a 
+   * file.
+   */
+  public static boolean isSupported(BAccessorEntry entry){
+    String name;
+
+    name = entry.getAccessorVisibleName();
+    return BDataAccessors.ACC_HitAccession.equals(name) 
+        || BDataAccessors.ACC_HitIdentifier.equals(name);
+  }
+
+  /**
+   * Copies a filter. Unlike BFilter.clone(), which lists all the values of
+   * the file sets, the rules of the copy share the file sets of the rules of
+   * the original filter: their files are not read.
+   * 
+   * @throws BFilterException if the copy cannot be created
+   */
+  public static BFilter copyFilter(BDataAccessors fModel, BFilter filter) throws BFilterException {
+    if (!hasValueSets(filter))
+      return (BFilter) filter.clone();
+    return FilterSystemConfigurator.getFilterFactory().createFilter(fModel, new BFilterIO(filter));
+  }
+
+  /**
+   * Copies a rule. Unlike BRule.clone(), which lists all the values of a file
+   * set, the copy shares the file set of the original rule.
+   * 
+   * @throws BRuleException if the copy cannot be created
+   */
+  public static BRule copyRule(BRuleFactory ruleFactory, BRule rule) throws BRuleException {
+    if (rule.getValue() instanceof BFileValueSet)
+      return ruleFactory.createRule(rule.getAccessor(), rule.getOperator(), rule.getValue());
+    return (BRule) rule.clone();
+  }
+
+  private static boolean hasValueSets(BFilter filter){
+    Iterator<BRule> rules;
+
+    rules = filter.getRules();
+    while(rules.hasNext()){
+      if (rules.next().getValue() instanceof BFileValueSet)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the path of the file listing the values.
+   */
+  public String getPath(){
+    return path;
+  }
+
+  /**
+   * Figures out whether the Bloom filter is enabled.
+   */
+  public boolean isBloomFilterEnabled(){
+    return bloomFilter;
+  }
+
+  /**
+   * Reads the file. Does nothing if the file has already been read.
+   * 
+   * @throws IOException if the file cannot be read
+   */
+  public synchronized void load() throws IOException {
+    ArrayList<String> values;
+    String            line;
+
+    if (_table!=null)
+      return;
+    values = new ArrayList<String>();
+    try (BufferedReader reader = Files.newBufferedReader(new File(path).toPath(), StandardCharsets.UTF_8)) {
+      while((line=reader.readLine())!=null){
+        line = line.trim();
+        if (line.length()==0 || line.charAt(0)==COMMENT_CHAR)
+          continue;
+        values.add(line);
+      }
+    }
+    buildTable(values);
+  }
+
+  /**
+   * Reads the file. Called by the Set methods: if the file cannot be read, a
+   * warning is logged and the set is empty. Rules check the file when they
+   * are created, see load().
+   */
+  private String[] getTable(){
+    String[] table;
+
+    synchronized(this){
+      table = _table;
+    }
+    if (table!=null)
+      return table;
+    try {
+      load();
+    } catch (IOException e) {
+      _logger.warn("unable to read value file: "+path+": "+e);
+      synchronized(this){
+        if (_table==null)
+          buildTable(new ArrayList<String>());
+      }
+    }
+    synchronized(this){
+      return _table;
+    }
+  }
+
+  private void buildTable(ArrayList<String> values){
+    String[] table;
+    long[]   bloom;
+    int      capacity, mask, idx, size = 0;
+
+    //load factor below 0.5: a probe rarely visits more than two slots
+    capacity = Integer.highestOneBit(Math.max(4, values.size())*2-1)<<1;
+    table = new String[capacity];
+    mask = capacity-1;
+    for(String value : values){
+      idx = hash(value) & mask;
+      while(table[idx]!=null && !table[idx].equals(value)){
+        idx = (idx+1) & mask;
+      }
+      if (table[idx]==null){
+        table[idx] = value;
+        size++;
+      }
+    }
+    bloom = null;
+    if (bloomFilter){
+      capacity = Integer.highestOneBit(Math.max(64, size*BLOOM_BITS_PER_VALUE)-1)<<1;
+      bloom = new long[capacity>>>6];
+      for(String value : table){
+        if (value!=null)
+          addToBloom(bloom, capacity-1, value);
+      }
+      _bloomMask = capacity-1;
+    }
+    _bloom = bloom;
+    _size = size;
+    _table = table;
+  }
+
+  private static int hash(String value){
+    int h;
+
+    h = value.hashCode()*0x9E3779B9;
+    return h ^ (h>>>16);
+  }
+
+  private static int hash2(String value){
+    int h;
+
+    h = value.hashCode()*0x85EBCA6B;
+    h ^= h>>>13;
+    //odd, so that successive bits differ
+    return (h*0xC2B2AE35) | 1;
+  }
+
+  private static void addToBloom(long[] bloom, int mask, String value){
+    int h1, h2, bit, i;
+
+    h1 = hash(value);
+    h2 = hash2(value);
+    for(i=0;i<BLOOM_HASHES;i++){
+      bit = (h1+i*h2) & mask;
+      bloom[bit>>>6] |= 1L<<bit;
+    }
+  }
+
+  private boolean mightContain(String value){
+    int h1, h2, bit, i;
+
+    h1 = hash(value);
+    h2 = hash2(value);
+    for(i=0;i<BLOOM_HASHES;i++){
+      bit = (h1+i*h2) & _bloomMask;
+      if ((_bloom[bit>>>6] & (1L<<bit))==0)
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    String[] table;
+    String   value, cur;
+    int      idx, mask;
+
+    if (o instanceof String == false)
+      return false;
+    value = (String) o;
+    table = getTable();
+    if (_bloom!=null && !mightContain(value))
+      return false;
+    mask = table.length-1;
+    idx = hash(value) & mask;
+    while((cur=table[idx])!=null){
+      if (cur.equals(value))
+        return true;
+      idx = (idx+1) & mask;
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    getTable();
+    return _size;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    final String[] table = getTable();
+
+    return new Iterator<String>(){
+      private int _next = advance(0);
+
+      private int advance(int idx){
+        while(idx<table.length && table[idx]==null){
+          idx++;
+        }
+        return idx;
+      }
+      public boolean hasNext(){
+        return _next<table.length;
+      }
+      public String next(){
+        String value;
+
+        if (!hasNext())
+          throw new NoSuchElementException();
+        value = table[_next];
+        _next = advance(_next+1);
+        return value;
+      }
+      public void remove(){
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof BFileValueSet && path.equals(((BFileValueSet) o).path))
+      return true;
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  /**
+   * Returns the path of the file: the values are not listed, since there
+   * may be many of them.
+   */
+  @Override
+  public String toString() {
+    return path;
+  }
+}
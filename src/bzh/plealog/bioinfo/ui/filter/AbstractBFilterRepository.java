@@ -0,0 +1,510 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.swing.event.EventListenerList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a base implementation of BFilterRepository. It maintains the index
+ * of the filters contained in the repository, handles lookup by alias and by
+ * file name as well as listeners: sub-classes only have to implement the storage operations.
+ * 
+ * A repository may expose bundled samples (see setSamples()): samples that
+ * have no file in the repository are added to the loaded filters as lazy
+ * entries; saving such an entry copies the sample into the repository, and
+ * deleting it hides the sample.
+ * 
+ * @author Patrick G. Durand
+ */
+public abstract class AbstractBFilterRepository implements BFilterRepository {
+  //filters, with the alias under which each one is indexed
+  private LinkedHashMap<BFilterEntry, String>  _entries;
+  //filters by alias; several filters may have the same alias
+  private HashMap<String, List<BFilterEntry>>  _aliases;
+  //filters by file name
+  private HashMap<String, BFilterEntry>        _files;
+  //alias names returned by getFilterAliases(); null when the index changed
+  private List<String>                         _aliasList;
+  private int                                  _aliasListUnreadable;
+  private EventListenerList                    _listenerList;
+  private BFilterSampleOverlay                 _samples;
+  private File                                 _samplesDirectory;
+  private TreeSet<String>                      _hiddenSamples;
+
+  /**
+   * Name of the file listing the samples deleted by the user.
+   */
+  public static final String HIDDEN_SAMPLES_FILE_NAME = ".bft_hidden_samples";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final Logger _logger = Logger.getLogger("kb."+"AbstractBFilterRepository");
+
+  public AbstractBFilterRepository(){
+    _entries = new LinkedHashMap<BFilterEntry, String>();
+    _aliases = new HashMap<String, List<BFilterEntry>>();
+    _files = new HashMap<String, BFilterEntry>();
+    _listenerList = new EventListenerList();
+  }
+
+  /**
+   * Reads all the filters from the storage.
+   */
+  protected abstract List<BFilterEntry> doLoadAll() throws IOException;
+
+  /**
+   * Writes a filter to the storage. Has to assign a file name to the entry if
+   * it does not have one.
+   */
+  protected abstract void doSave(BFilterEntry entry) throws IOException;
+
+  /**
+   * Removes a filter from the storage.
+   */
+  protected abstract void doDelete(BFilterEntry entry) throws IOException;
+
+  /**
+   * Removes a set of filters from the storage. This default implementation
+   * calls doDelete() for each filter; sub-classes may override it to handle
+   * the set at once.
+   * 
+   * @throws IOException if some filters cannot be removed. The other ones
+   * are removed anyway.
+   */
+  protected void doDeleteAll(Collection<BFilterEntry> entries) throws IOException {
+    IOException error = null;
+
+    for(BFilterEntry entry : entries){
+      try {
+        doDelete(entry);
+      } catch (IOException e) {
+        if (error==null)
+          error = e;
+      }
+    }
+    if (error!=null)
+      throw error;
+  }
+
+  /**
+   * Sets the samples exposed by this repository. Call this method before
+   * loadAll().
+   * 
+   * @param samples the samples
+   * @param directory the directory of the repository. Samples are stored 
+   * there when saved, and the list of deleted samples is kept there too.
+   */
+  public synchronized void setSamples(BFilterSampleOverlay samples, File directory){
+    String line;
+
+    _samples = samples;
+    _samplesDirectory = directory.getAbsoluteFile();
+    _hiddenSamples = new TreeSet<String>();
+    try(BufferedReader reader = Files.newBufferedReader(getHiddenSamplesFile().toPath(), UTF8)){
+      while((line=reader.readLine())!=null){
+        if (line.length()!=0)
+          _hiddenSamples.add(line);
+      }
+    } catch (IOException e) {
+      //no sample hidden yet
+    }
+  }
+
+  /**
+   * Returns the samples exposed by this repository. May return null.
+   */
+  public synchronized BFilterSampleOverlay getSamples(){
+    return _samples;
+  }
+
+  /**
+   * Figures out whether or not an entry is a sample that has not yet been
+   * saved in the repository.
+   */
+  public synchronized boolean isUnsavedSample(BFilterEntry entry){
+    File file;
+
+    if (_samples==null || entry.getFileName()==null)
+      return false;
+    file = new File(entry.getFileName());
+    return _samples.contains(file.getName()) && !file.exists();
+  }
+
+  private File getHiddenSamplesFile(){
+    return new File(_samplesDirectory, HIDDEN_SAMPLES_FILE_NAME);
+  }
+
+  /**
+   * Adds to a list of filters the samples that are neither shadowed by a 
+   * filter of the list nor hidden.
+   */
+  private List<BFilterEntry> addSamples(List<BFilterEntry> entries){
+    ArrayList<BFilterEntry> all;
+    HashSet<String>         names;
+
+    if (_samples==null)
+      return entries;
+    names = new HashSet<String>();
+    for(BFilterEntry entry : entries){
+      if (entry.getFileName()!=null)
+        names.add(new File(entry.getFileName()).getName());
+    }
+    all = new ArrayList<BFilterEntry>(entries);
+    for(String name : _samples.getNames()){
+      if (names.contains(name) || _hiddenSamples.contains(name))
+        continue;
+      try {
+        all.add(_samples.createEntry(_samplesDirectory, name));
+      } catch (IOException e) {
+        _logger.warn("Unable to read sample: "+name+": "+e);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Hides a sample, so that it is not loaded anymore.
+   */
+  private void hideSample(String name){
+    hideSamples(Collections.singletonList(name));
+  }
+
+  /**
+   * Hides several samples. The list of hidden samples is written once.
+   */
+  private void hideSamples(Collection<String> names){
+    File    tmpFile = null;
+    boolean changed = false;
+
+    for(String name : names){
+      changed |= _hiddenSamples.add(name);
+    }
+    if (!changed)
+      return;
+    try {
+      tmpFile = File.createTempFile(HIDDEN_SAMPLES_FILE_NAME, ".tmp", _samplesDirectory);
+      try(BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), UTF8)){
+        for(String hidden : _hiddenSamples){
+          writer.write(hidden);
+          writer.newLine();
+        }
+      }
+      Files.move(tmpFile.toPath(), getHiddenSamplesFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      _logger.warn("Unable to save hidden samples: "+e);
+      if (tmpFile!=null)
+        tmpFile.delete();
+    }
+  }
+
+  @Override
+  public List<BFilterEntry> loadAll() throws IOException {
+    List<BFilterEntry> entries;
+
+    entries = doLoadAll();
+    synchronized(this){
+      entries = addSamples(entries);
+      _entries.clear();
+      _aliases.clear();
+      _files.clear();
+      _aliasList = null;
+      for(BFilterEntry entry : entries){
+        index(entry);
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public void saveAll(Collection<BFilterEntry> entries) throws IOException {
+    for(BFilterEntry entry : entries){
+      save(entry);
+    }
+  }
+
+  @Override
+  public void save(BFilterEntry entry) throws IOException {
+    boolean added;
+
+    doSave(entry);
+    synchronized(this){
+      added = index(entry);
+    }
+    fireFilterEdited(new BFilterEditEvent(entry, 
+        added ? BFilterEditEvent.FILTER_ADDED : BFilterEditEvent.FILTER_EDITED));
+  }
+
+  @Override
+  public void delete(BFilterEntry entry) throws IOException {
+    String name;
+
+    doDelete(entry);
+    synchronized(this){
+      unindex(entry);
+      if (_samples!=null && entry.getFileName()!=null){
+        name = new File(entry.getFileName()).getName();
+        //otherwise the sample would come back on next load
+        if (_samples.contains(name))
+          hideSample(name);
+      }
+    }
+    fireFilterEdited(new BFilterEditEvent(entry, BFilterEditEvent.FILTER_DELETED));
+  }
+
+  @Override
+  public void deleteAll(Collection<BFilterEntry> entries) throws IOException {
+    ArrayList<String> samples;
+    IOException       error = null;
+    String            name;
+
+    if (entries.isEmpty())
+      return;
+    try {
+      doDeleteAll(entries);
+    } catch (IOException e) {
+      error = e;
+    }
+    samples = new ArrayList<String>();
+    synchronized(this){
+      for(BFilterEntry entry : entries){
+        unindex(entry);
+        if (_samples!=null && entry.getFileName()!=null){
+          name = new File(entry.getFileName()).getName();
+          if (_samples.contains(name))
+            samples.add(name);
+        }
+      }
+      if (!samples.isEmpty())
+        hideSamples(samples);
+    }
+    fireFilterEdited(new BFilterEditEvent(this, new ArrayList<BFilterEntry>(entries), 
+        BFilterEditEvent.FILTERS_DELETED));
+    if (error!=null)
+      throw error;
+  }
+
+  /**
+   * Updates the repository with changes made on the storage by someone else.
+   * Nothing is written to the storage, but listeners are notified.
+   * 
+   * @param added new filters
+   * @param updated existing filters that have been modified
+   * @param removed existing filters that have been deleted
+   */
+  public void storageChanged(Collection<BFilterEntry> added, Collection<BFilterEntry> updated, 
+      Collection<BFilterEntry> removed){
+    synchronized(this){
+      for(BFilterEntry entry : added){
+        index(entry);
+      }
+      for(BFilterEntry entry : updated){
+        index(entry);
+      }
+      for(BFilterEntry entry : removed){
+        unindex(entry);
+      }
+    }
+    for(BFilterEntry entry : added){
+      fireFilterEdited(new BFilterEditEvent(entry, BFilterEditEvent.FILTER_ADDED));
+    }
+    for(BFilterEntry entry : updated){
+      fireFilterEdited(new BFilterEditEvent(entry, BFilterEditEvent.FILTER_EDITED));
+    }
+    for(BFilterEntry entry : removed){
+      fireFilterEdited(new BFilterEditEvent(entry, BFilterEditEvent.FILTER_DELETED));
+    }
+  }
+
+  /**
+   * Adds or re-indexes a filter. Returns true if the filter was not yet
+   * in the index.
+   */
+  private boolean index(BFilterEntry entry){
+    List<BFilterEntry> list;
+    String             alias, oldAlias;
+    boolean            added;
+
+    if (entry.getFileName()!=null)
+      _files.put(entry.getFileName(), entry);
+    alias = entry.getName();
+    added = !_entries.containsKey(entry);
+    oldAlias = _entries.put(entry, alias);
+    if (!added){
+      if (alias==null ? oldAlias==null : alias.equals(oldAlias))
+        return false;
+      removeAlias(oldAlias, entry);
+    }
+    _aliasList = null;
+    if (alias!=null){
+      list = _aliases.get(alias);
+      if (list==null){
+        list = new ArrayList<BFilterEntry>(1);
+        _aliases.put(alias, list);
+      }
+      list.add(entry);
+    }
+    return added;
+  }
+
+  private void unindex(BFilterEntry entry){
+    if (!_entries.containsKey(entry))
+      return;
+    if (entry.getFileName()!=null && _files.get(entry.getFileName())==entry)
+      _files.remove(entry.getFileName());
+    removeAlias(_entries.remove(entry), entry);
+    _aliasList = null;
+  }
+
+  private void removeAlias(String alias, BFilterEntry entry){
+    List<BFilterEntry> list;
+
+    if (alias==null)
+      return;
+    list = _aliases.get(alias);
+    if (list==null)
+      return;
+    list.remove(entry);
+    if (list.isEmpty())
+      _aliases.remove(alias);
+  }
+
+  /**
+   * Returns a particular filter given its name. The BFilter of the returned 
+   * entry is loaded: entries whose BFilter cannot be loaded are removed from
+   * the index and never returned.
+   */
+  @Override
+  public BFilterEntry getFilter(String aliasName) {
+    List<BFilterEntry> list;
+
+    synchronized(this){
+      list = _aliases.get(aliasName);
+      if (list==null)
+        return null;
+      list = new ArrayList<BFilterEntry>(list);
+    }
+    //filters are loaded outside the lock
+    for(BFilterEntry entry : list){
+      if (entry.getFilter()!=null)
+        return entry;
+      synchronized(this){
+        unindex(entry);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the alias names of the filters. Filters that have failed to load
+   * are skipped. The list is computed once, then shared until the content of
+   * the repository changes: it cannot be modified.
+   */
+  @Override
+  public synchronized List<String> getFilterAliases() {
+    ArrayList<String> aliases;
+    int               unreadable;
+
+    //an entry may have failed to load since the list was computed
+    unreadable = BFilterEntry.getUnreadableCount();
+    if (_aliasList!=null && _aliasListUnreadable==unreadable)
+      return _aliasList;
+    aliases = new ArrayList<String>(_entries.size());
+    for(Map.Entry<BFilterEntry, String> entry : _entries.entrySet()){
+      if (!entry.getKey().isUnreadable())
+        aliases.add(entry.getValue());
+    }
+    _aliasList = Collections.unmodifiableList(aliases);
+    _aliasListUnreadable = unreadable;
+    return _aliasList;
+  }
+
+  /**
+   * Returns the filter stored in a particular file. Does not load the filter.
+   * 
+   * @param fileName the absolute path of the file
+   * 
+   * @return the filter, or null if no filter of the repository is stored in
+   * that file
+   */
+  public synchronized BFilterEntry getEntry(String fileName){
+    return _files.get(fileName);
+  }
+
+  @Override
+  public synchronized List<BFilterEntry> getEntries() {
+    return new ArrayList<BFilterEntry>(_entries.keySet());
+  }
+
+  /**
+   * Returns the number of filters contained in the repository.
+   */
+  public synchronized int size(){
+    return _entries.size();
+  }
+
+  @Override
+  public void addBFilterEditListener(BFilterEditListener listener) {
+    if (listener==null)
+      return;
+    _listenerList.add(BFilterEditListener.class, listener);
+  }
+
+  @Override
+  public void removeBFilterEditListener(BFilterEditListener listener) {
+    if (listener==null)
+      return;
+    _listenerList.remove(BFilterEditListener.class, listener);
+  }
+
+  protected void fireFilterEdited(BFilterEditEvent event) {
+    Object[] listeners = _listenerList.getListenerList();
+    for (int i = listeners.length-2; i>=0; i-=2) {
+      if (listeners[i]==BFilterEditListener.class) {
+        ((BFilterEditListener)listeners[i+1]).filterEdited(event);
+      }
+    }
+  }
+
+  @Override
+  public boolean flush(long timeout) {
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,274 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
+import bzh.plealog.bioinfo.api.filter.BDataAccessors;
+import bzh.plealog.bioinfo.filter.set.BFileValueSet;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+/**
+ * This class contains the accessors of a BDataAccessors sorted by name, as
+ * well as the labels of the operators of each accessor. It is used to fill in
+ * the combo boxes of BRuleEditor.
+ * 
+ * A catalog is built once per BDataAccessors and shared by all the editors:
+ * combo box models returned by this class share the content of the catalog
+ * and only keep their own selection. A catalog is rebuilt when the set of 
+ * accessor names of its BDataAccessors changes, or after a call to 
+ * invalidate().
+ * 
+ * @author Patrick G. Durand
+ */
+public class BAccessorCatalog {
+  private BAccessorEntry[]              _entries;
+  private Map<BAccessorEntry, String[]> _operatorLabels;
+  private int                           _signature;
+
+  private static final String[] NO_LABELS = new String[0];
+
+  private static final String STR_IN_SET_LABEL = FilterMessages.getString("BAccessorCatalog.ope.inSet");
+  private static final String STR_NOT_IN_SET_LABEL = FilterMessages.getString("BAccessorCatalog.ope.notInSet");
+
+  private static final Map<BDataAccessors, BAccessorCatalog> CATALOGS = 
+      new WeakHashMap<BDataAccessors, BAccessorCatalog>();
+
+  private BAccessorCatalog(BDataAccessors fModel, int signature){
+    ArrayList<String>   names;
+    Enumeration<String> myEnum;
+    BAccessorEntry      entry;
+    int                 i, size;
+
+    names = new ArrayList<String>();
+    myEnum = fModel.getAccessorVisibleNames();
+    while(myEnum.hasMoreElements()){
+      names.add(myEnum.nextElement());
+    }
+    Collections.sort(names);
+    size = names.size();
+    _entries = new BAccessorEntry[size];
+    _operatorLabels = new IdentityHashMap<BAccessorEntry, String[]>();
+    for(i=0;i<size;i++){
+      entry = fModel.getAccessorEntry(names.get(i));
+      _entries[i] = entry;
+      if (entry!=null)
+        _operatorLabels.put(entry, computeOperatorLabels(fModel, entry));
+    }
+    _signature = signature;
+  }
+
+  /**
+   * Returns the catalog of a BDataAccessors.
+   */
+  public static BAccessorCatalog getCatalog(BDataAccessors fModel){
+    BAccessorCatalog catalog;
+    int              signature;
+
+    //cheap compared to the creation of a catalog
+    signature = getSignature(fModel);
+    synchronized(CATALOGS){
+      catalog = CATALOGS.get(fModel);
+      if (catalog==null || catalog._signature!=signature){
+        catalog = new BAccessorCatalog(fModel, signature);
+        CATALOGS.put(fModel, catalog);
+      }
+    }
+    return catalog;
+  }
+
+  /**
+   * Discards the catalog of a BDataAccessors. Call this method when the
+   * accessors of a BDataAccessors have been modified.
+   */
+  public static void invalidate(BDataAccessors fModel){
+    synchronized(CATALOGS){
+      CATALOGS.remove(fModel);
+    }
+  }
+
+  /**
+   * Returns a value that changes with the set of accessor names.
+   */
+  private static int getSignature(BDataAccessors fModel){
+    Enumeration<String> myEnum;
+    int                 signature = 0, count = 0;
+
+    myEnum = fModel.getAccessorVisibleNames();
+    while(myEnum.hasMoreElements()){
+      //the order of the names does not matter
+      signature += myEnum.nextElement().hashCode();
+      count++;
+    }
+    return 31*signature+count;
+  }
+
+  /**
+   * Returns the label of an operator, as displayed to the user. Unlike
+   * BDataAccessors.getTextForOperator(), this method also handles the set
+   * operators. May return null.
+   */
+  public static String getOperatorText(BDataAccessors fModel, String ope){
+    String lbl;
+
+    lbl = (String) fModel.getTextForOperator(ope);
+    if (lbl!=null)
+      return lbl;
+    if (BDataAccessors.OPE_FUNC_StrInSet.equals(ope))
+      return STR_IN_SET_LABEL;
+    if (BDataAccessors.OPE_FUNC_StrNotInSet.equals(ope))
+      return STR_NOT_IN_SET_LABEL;
+    return null;
+  }
+
+  /**
+   * Returns an operator given its label. Unlike 
+   * BDataAccessors.getOperatorForText(), this method also handles the set
+   * operators. May return null.
+   */
+  public static String getOperatorForText(BDataAccessors fModel, String opeLabel){
+    String ope;
+
+    ope = (String) fModel.getOperatorForText(opeLabel);
+    if (ope!=null)
+      return ope;
+    if (STR_IN_SET_LABEL.equals(opeLabel))
+      return BDataAccessors.OPE_FUNC_StrInSet;
+    if (STR_NOT_IN_SET_LABEL.equals(opeLabel))
+      return BDataAccessors.OPE_FUNC_StrNotInSet;
+    return null;
+  }
+
+  private static String[] computeOperatorLabels(BDataAccessors fModel, BAccessorEntry baEntry){
+    ArrayList<String> labels;
+    String[]          opes;
+    String            lbl;
+
+    opes = baEntry.getOperators();
+    if (opes==null || opes.length==0){
+      return NO_LABELS;
+    }
+    labels = new ArrayList<String>(opes.length);
+    for(String ope : opes){
+      lbl = (String) fModel.getTextForOperator(ope);
+      //set operators are only proposed where values can be read from a file
+      if (lbl==null && BFileValueSet.isSetOperator(ope) && BFileValueSet.isSupported(baEntry))
+        lbl = getOperatorText(fModel, ope);
+      if (lbl!=null)
+        labels.add(lbl);
+    }
+    return labels.toArray(new String[labels.size()]);
+  }
+
+  /**
+   * Returns the number of accessors.
+   */
+  public int size(){
+    return _entries.length;
+  }
+
+  /**
+   * Returns an accessor given its index. Accessors are sorted by name.
+   */
+  public BAccessorEntry getEntry(int idx){
+    return _entries[idx];
+  }
+
+  /**
+   * Returns the number of operator labels of an accessor.
+   */
+  public int getOperatorCount(BAccessorEntry entry){
+    String[] labels;
+
+    labels = _operatorLabels.get(entry);
+    return labels==null ? 0 : labels.length;
+  }
+
+  /**
+   * Returns an operator label of an accessor.
+   */
+  public String getOperatorLabel(BAccessorEntry entry, int idx){
+    return _operatorLabels.get(entry)[idx];
+  }
+
+  /**
+   * Creates a combo box model displaying the accessors of this catalog. The
+   * first accessor is selected.
+   */
+  public ComboBoxModel<BAccessorEntry> createAccessorModel(){
+    return new CatalogComboBoxModel<BAccessorEntry>(_entries);
+  }
+
+  /**
+   * Creates a combo box model displaying the labels of the operators of an
+   * accessor. The first label is selected.
+   * 
+   * @param entry an accessor. May be null, in which case the model is empty.
+   */
+  public ComboBoxModel<String> createOperatorModel(BAccessorEntry entry){
+    String[] labels;
+
+    labels = entry!=null ? _operatorLabels.get(entry) : null;
+    return new CatalogComboBoxModel<String>(labels!=null ? labels : NO_LABELS);
+  }
+
+  /**
+   * A read-only combo box model backed by an array owned by the catalog.
+   */
+  private static class CatalogComboBoxModel<E> extends AbstractListModel<E> implements ComboBoxModel<E> {
+    private static final long serialVersionUID = -5328307862410553291L;
+    private E[]    _items;
+    private Object _selected;
+
+    private CatalogComboBoxModel(E[] items){
+      _items = items;
+      _selected = items.length!=0 ? items[0] : null;
+    }
+
+    @Override
+    public int getSize() {
+      return _items.length;
+    }
+
+    @Override
+    public E getElementAt(int index) {
+      return _items[index];
+    }
+
+    @Override
+    public void setSelectedItem(Object anItem) {
+      if (_selected==null ? anItem==null : _selected.equals(anItem))
+        return;
+      _selected = anItem;
+      fireContentsChanged(this, -1, -1);
+    }
+
+    @Override
+    public Object getSelectedItem() {
+      return _selected;
+    }
+  }
+}
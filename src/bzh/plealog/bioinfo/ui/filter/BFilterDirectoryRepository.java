@@ -0,0 +1,171 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+
+/**
+ * This is a BFilterRepository storing each filter as an XML file within a
+ * directory. Filters are read using a BFilterLoader and written in the
+ * background using a BFilterPersistenceQueue. New filters are named using a
+ * BFilterNameAllocator: filter1.xml, filter2.xml, etc.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterDirectoryRepository extends AbstractBFilterRepository {
+  private File                     _directory;
+  private BFilterLoader            _loader;
+  private BFilterPersistenceQueue  _queue;
+  private BFilterNameAllocator     _allocator;
+  private BFilterLoader.LoadResult _loadResult;
+  private BFilterLoader.LoadListener _loadListener;
+
+  /**
+   * Constructor.
+   * 
+   * @param directory the directory containing the filter files
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to read and write filter files
+   */
+  public BFilterDirectoryRepository(File directory, BOperatorAccessors fModel, FilterSerializer serializer){
+    super();
+    _directory = directory.getAbsoluteFile();
+    _loader = new BFilterLoader(fModel, serializer);
+    _queue = new BFilterPersistenceQueue(serializer);
+  }
+
+  /**
+   * Returns the directory containing the filter files.
+   */
+  public File getDirectory(){
+    return _directory;
+  }
+
+  /**
+   * Returns the loader used to read the filter files. Use it to setup the
+   * loading mode before calling loadAll().
+   */
+  public BFilterLoader getLoader(){
+    return _loader;
+  }
+
+  /**
+   * Returns the queue used to write filter files.
+   */
+  public BFilterPersistenceQueue getPersistenceQueue(){
+    return _queue;
+  }
+
+  /**
+   * Sets the object notified while loadAll() reads the filter files. The
+   * filters it receives are returned by loadAll() as well; the samples are
+   * only returned by loadAll().
+   * 
+   * @param listener the listener. May be null.
+   */
+  public synchronized void setLoadListener(BFilterLoader.LoadListener listener){
+    _loadListener = listener;
+  }
+
+  private synchronized BFilterLoader.LoadListener getLoadListener(){
+    return _loadListener;
+  }
+
+  /**
+   * Returns the result of the last call to loadAll(). May return null.
+   */
+  public BFilterLoader.LoadResult getLoadResult(){
+    return _loadResult;
+  }
+
+  @Override
+  protected List<BFilterEntry> doLoadAll() {
+    BFilterLoader.LoadResult result;
+
+    result = _loader.load(_directory, getLoadListener());
+    _loader.warmUp(result);
+    _loadResult = result;
+    return result.getEntries();
+  }
+
+  @Override
+  protected void doSave(BFilterEntry entry) throws IOException {
+    if (entry.getFilter()==null)
+      return;
+    if (entry.getFileName()==null){
+      entry.setFileName(allocateFileName());
+    }
+    _queue.save(entry.getFilter(), entry.getFileName());
+  }
+
+  /**
+   * Allocates the name of a new filter file. The returned file already exists
+   * on disk: it is an empty placeholder that will be replaced when the filter
+   * is written.
+   */
+  private synchronized String allocateFileName() throws IOException {
+    //the directory is scanned only when the allocator is created
+    if (_allocator==null){
+      _allocator = new BFilterNameAllocator(_directory, 
+          BFilterEditorListener.FILTER_HEADER_NAME, BFilterLoader.FILTER_FILE_EXT);
+      //a new filter must not shadow a sample
+      if (getSamples()!=null){
+        for(String name : getSamples().getNames()){
+          _allocator.reserve(name);
+        }
+      }
+    }
+    return _allocator.allocate();
+  }
+
+  @Override
+  protected void doDelete(BFilterEntry entry) {
+    if (entry.getFileName()!=null){
+      _queue.delete(entry.getFileName());
+    }
+  }
+
+  @Override
+  protected void doDeleteAll(Collection<BFilterEntry> entries) {
+    ArrayList<String> fileNames;
+
+    fileNames = new ArrayList<String>(entries.size());
+    for(BFilterEntry entry : entries){
+      if (entry.getFileName()!=null)
+        fileNames.add(entry.getFileName());
+    }
+    _queue.deleteAll(fileNames);
+  }
+
+  @Override
+  public boolean flush(long timeout) {
+    return _queue.flush(timeout);
+  }
+
+  @Override
+  public void close() {
+    //pending requests are still written by the queue
+    _queue.shutdown(0);
+  }
+}
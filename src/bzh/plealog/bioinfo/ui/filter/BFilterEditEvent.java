@@ -16,7 +16,9 @@
  */
 package bzh.plealog.bioinfo.ui.filter;
 
+import java.util.Collections;
 import java.util.EventObject;
+import java.util.List;
 
 /**
  * This is an event object used to handle BFilter editing operations.
@@ -29,8 +31,13 @@ public class BFilterEditEvent extends EventObject {
   public static final int FILTER_EDITED = 2;
   public static final int FILTER_DELETED = 3;
   public static final int FILTER_COPIED = 4;
+  /**
+   * Several filters have been deleted at once. Use getEntries() to get them.
+   */
+  public static final int FILTERS_DELETED = 5;
 
-  private int _type;
+  private int                _type;
+  private List<BFilterEntry> _entries;
 
   /**
    * Constructor.
@@ -43,10 +50,35 @@ public class BFilterEditEvent extends EventObject {
     _type = type;
   }
 
+  /**
+   * Constructor for an operation made on several filters at once.
+   * 
+   * @param source the object on which the operation has been done
+   * @param filters the filters
+   * @param type one of the FILTERS_XXX constants defined here.
+   */
+  public BFilterEditEvent(Object source, List<BFilterEntry> filters, int type){
+    super(source);
+    _type = type;
+    _entries = Collections.unmodifiableList(filters);
+  }
+
   /**
    * Returns one of the FILTER_XXX constants defined here.
    */
   public int getType() {
     return _type;
   }
+
+  /**
+   * Returns the filters targeted by this event. For an event created for a 
+   * single filter, returns a list containing the source of this event.
+   */
+  public List<BFilterEntry> getEntries(){
+    if (_entries!=null)
+      return _entries;
+    if (getSource() instanceof BFilterEntry)
+      return Collections.singletonList((BFilterEntry) getSource());
+    return Collections.emptyList();
+  }
 }
@@ -17,28 +17,41 @@
 package bzh.plealog.bioinfo.ui.filter;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Iterator;
 
 import javax.swing.BorderFactory;
-import javax.swing.BoxLayout;
+import javax.swing.DefaultCellEditor;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
-
+import javax.swing.border.Border;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumnModel;
+
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
 import bzh.plealog.bioinfo.api.filter.BDataAccessors;
 import bzh.plealog.bioinfo.api.filter.BFilter;
 import bzh.plealog.bioinfo.api.filter.BFilterException;
 import bzh.plealog.bioinfo.api.filter.BFilterFactory;
-import bzh.plealog.bioinfo.api.filter.BRule;
 import bzh.plealog.bioinfo.api.filter.BRuleException;
 import bzh.plealog.bioinfo.api.filter.BRuleFactory;
 import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
@@ -47,10 +60,16 @@ import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
 import com.jgoodies.forms.builder.DefaultFormBuilder;
 import com.jgoodies.forms.layout.FormLayout;
 import com.plealog.genericapp.api.EZEnvironment;
+import com.plealog.genericapp.ui.common.ResizableComboboxPopupMenuListener;
 
 /**
  * This is a BFilter editor.
  * 
+ * Rules are displayed in a table backed by a BRuleListModel: only the visible
+ * rules are rendered, so that filters with hundreds of rules open quickly.
+ * Rules are validated in the background while the user edits them, and
+ * invalid values are highlighted.
+ * 
  * @author Patrick G. Durand
  */
 public class BFilterEditor extends JPanel {
@@ -58,9 +77,12 @@ public class BFilterEditor extends JPanel {
   private JTextField       _filterName;
   private JTextField       _filterDescription;
   private JComboBox<ExpressionTypeItem>        _exprType;
-  private JPanel           _rulesPanel;
+  private JTable           _rulesTable;
+  private BRuleListModel   _rulesModel;
+  private BRuleValidator   _validator;
+  private JButton          _addRule;
+  private JButton          _removeRule;
   private JTextArea        _helpArea;
-  private ArrayList<BRulerEditorContainer>        _rulesContainer;
   private BDataAccessors   _filterModel;
   private BFilterFactory   _filterFactory;
   private BRuleFactory     _ruleFactory;
@@ -74,9 +96,14 @@ public class BFilterEditor extends JPanel {
   private static final MessageFormat INVALID_RULE_FORMATTER  = new MessageFormat(
       FilterMessages.getString("BFilterEditor.err.2"));
 
+  private static final Color INVALID_RULE_COLOR = new Color(255, 204, 204);
+
   private static final int ANY_EXPR_ITEM = 0;
   private static final int ALL_EXPR_ITEM = 1;
 
+  //number of rules visible without scrolling
+  private static final int VISIBLE_RULES = 8;
+
   public BFilterEditor(BDataAccessors fModel){
     this(fModel, null);
   }
@@ -91,10 +118,11 @@ public class BFilterEditor extends JPanel {
   public BFilterEditor(BDataAccessors fModel, BFilter filter, BFilterFactory filterFactory, BRuleFactory ruleFactory,
       boolean showRulesOnly){
     _filterModel = fModel;
-    _rulesContainer = new ArrayList<BRulerEditorContainer>();
+    _rulesModel = new BRuleListModel(fModel);
     _filterFactory = filterFactory==null?FilterSystemConfigurator.getFilterFactory():filterFactory;
     _ruleFactory = ruleFactory==null?FilterSystemConfigurator.getRuleFactory():ruleFactory;
     _showRulesOnly = showRulesOnly;
+    _validator = new BRuleValidator(_rulesModel, _ruleFactory);
     createGUI();
     if (filter==null){
       addBRuleEditor();
@@ -132,13 +160,22 @@ public class BFilterEditor extends JPanel {
     else{
       dName="No description";
     }
-    size = _rulesContainer.size();
+    stopEditing();
+    //most rules have already been validated while being edited
+    _validator.flush();
+    i = _rulesModel.getInvalidRow();
+    if (i!=-1){
+      selectRule(i);
+      throw new BFilterException(getInvalidRuleMessage(i));
+    }
+    size = _rulesModel.getRowCount();
     i=0;
     try {
       for(;i<size;i++){
-        filter.add(((BRulerEditorContainer)_rulesContainer.get(i)).getRule());
+        filter.add(_rulesModel.getRule(i, _ruleFactory));
       }
     } catch (BRuleException e) {
+      selectRule(i);
       Object[] args = {new Integer(i+1)};
       throw new BFilterException(
           INVALID_RULE_FORMATTER.format(args)+": "+e.getMessage());
@@ -148,6 +185,11 @@ public class BFilterEditor extends JPanel {
     return filter;
   }
 
+  private String getInvalidRuleMessage(int row){
+    Object[] args = {row+1};
+    return INVALID_RULE_FORMATTER.format(args)+": "+_rulesModel.getError(row);
+  }
+
   /**
    * Initializes this editor with an existing filter.
    */
@@ -168,16 +210,12 @@ public class BFilterEditor extends JPanel {
   }
 
   private void setFilter(BFilter filter, boolean reset){
-    Iterator<BRule> iter;
-
     if (filter==null)
       return;
     if (reset)
       clear();
-    iter = filter.getRules();
-    while(iter.hasNext()){
-      addBRuleEditor((BRule) iter.next());
-    }
+    //the rule list is built in one pass
+    _rulesModel.addRules(filter.getRules());
     if (!_showRulesOnly){
       _filterName.setText(filter.getName());
       _filterDescription.setText(filter.getDescription());
@@ -189,16 +227,8 @@ public class BFilterEditor extends JPanel {
   }
 
   private void clear(){
-    BRulerEditorContainer rEditor;
-    int                   i, size;
-
-    size = _rulesContainer.size();
-    for(i=0;i<size; i++){
-      rEditor = (BRulerEditorContainer) _rulesContainer.get(i);
-      _rulesPanel.remove(rEditor);
-    }
-    _rulesContainer.clear();
-    _rulesPanel.updateUI();
+    stopEditing();
+    _rulesModel.clear();
     if (!_showRulesOnly){
       _filterName.setText("");
       _filterDescription.setText("");
@@ -241,7 +271,7 @@ public class BFilterEditor extends JPanel {
     DefaultFormBuilder builder;
     FormLayout         layout;
     JScrollPane        scroller;
-    JPanel             top, expr, exprMain, rulesContainer;
+    JPanel             top, expr, exprMain, rulesContainer, btnPanel, btnWrapper;
 
     layout = new FormLayout("right:max(50dlu;p), 4dlu, 150dlu", "");
     builder = new DefaultFormBuilder(layout);
@@ -258,9 +288,7 @@ public class BFilterEditor extends JPanel {
       builder.nextLine();
     }
 
-    _rulesPanel = new JPanel();
-
-    _rulesPanel.setLayout(new BoxLayout(_rulesPanel, BoxLayout.Y_AXIS));
+    createRulesTable();
 
     expr = new JPanel();
     expr.add(new JLabel(FilterMessages.getString("BFilterEditor.ui.lbl.4")));
@@ -272,9 +300,15 @@ public class BFilterEditor extends JPanel {
     expr.add(new JLabel(FilterMessages.getString("BFilterEditor.ui.lbl.5")+":"));
     exprMain = new JPanel(new BorderLayout());
     exprMain.add(expr, BorderLayout.WEST);
+    scroller = new JScrollPane(_rulesTable);
+    btnPanel = new JPanel(new GridLayout(2, 1));
+    btnPanel.add(_addRule);
+    btnPanel.add(_removeRule);
+    btnWrapper = new JPanel(new BorderLayout());
+    btnWrapper.add(btnPanel, BorderLayout.NORTH);
     rulesContainer = new JPanel(new BorderLayout());
-    rulesContainer.add(_rulesPanel, BorderLayout.NORTH);
-    scroller = new JScrollPane(rulesContainer);
+    rulesContainer.add(scroller, BorderLayout.CENTER);
+    rulesContainer.add(btnWrapper, BorderLayout.EAST);
     this.setLayout(new BorderLayout());
     top = new JPanel(new BorderLayout());
     if (!_showRulesOnly){
@@ -282,53 +316,116 @@ public class BFilterEditor extends JPanel {
     }
     top.add(exprMain, BorderLayout.SOUTH);
     this.add(top, BorderLayout.NORTH);
-    this.add(scroller, BorderLayout.CENTER);
+    this.add(rulesContainer, BorderLayout.CENTER);
     this.add(createHelper(), BorderLayout.SOUTH);
   }
 
-  private void updateRuleEditor(){
-    BRulerEditorContainer rEditor;
-    int                   i, size;
+  /**
+   * Creates the rule list. Only the visible rules are rendered, and a single
+   * set of editor components is shared by all the rules.
+   */
+  private void createRulesTable(){
+    JComboBox<BAccessorEntry> accessors;
+    TableColumnModel          tcm;
+    ImageIcon                 icon;
+    int                       rowHeight;
+
+    _rulesTable = new JTable(_rulesModel);
+    _rulesTable.getTableHeader().setReorderingAllowed(false);
+    _rulesTable.setSurrendersFocusOnKeystroke(true);
+    _rulesTable.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+    _rulesTable.setGridColor(Color.LIGHT_GRAY);
+
+    accessors = new JComboBox<BAccessorEntry>(_rulesModel.getCatalog().createAccessorModel());
+    accessors.addPopupMenuListener(new ResizableComboboxPopupMenuListener());
+    tcm = _rulesTable.getColumnModel();
+    tcm.getColumn(BRuleListModel.ACCESSOR_COLUMN).setCellEditor(new DefaultCellEditor(accessors));
+    tcm.getColumn(BRuleListModel.OPERATOR_COLUMN).setCellEditor(new OperatorCellEditor());
+    tcm.getColumn(BRuleListModel.VALUE_COLUMN).setCellEditor(new ValueCellEditor());
+    tcm.getColumn(BRuleListModel.VALUE_COLUMN).setCellRenderer(new ValueCellRenderer());
+    tcm.getColumn(BRuleListModel.CASE_COLUMN).setCellRenderer(new CaseCellRenderer());
+    tcm.getColumn(BRuleListModel.ACCESSOR_COLUMN).setPreferredWidth(190);
+    tcm.getColumn(BRuleListModel.OPERATOR_COLUMN).setPreferredWidth(160);
+    tcm.getColumn(BRuleListModel.VALUE_COLUMN).setPreferredWidth(180);
+    tcm.getColumn(BRuleListModel.CASE_COLUMN).setPreferredWidth(80);
+    rowHeight = Math.max(_rulesTable.getRowHeight(), accessors.getPreferredSize().height);
+    _rulesTable.setRowHeight(rowHeight);
+    _rulesTable.setPreferredScrollableViewportSize(new Dimension(610, VISIBLE_RULES*rowHeight));
+    _rulesTable.getSelectionModel().addListSelectionListener(new RuleSelectionListener());
+    _rulesModel.addTableModelListener(new RuleModelListener());
+
+    icon = EZEnvironment.getImageIcon("add.png");
+    if (icon==null)
+      _addRule = new JButton("+");
+    else
+      _addRule = new JButton(icon);
+    _addRule.addActionListener(new AddBtnActionListener());
+    icon = EZEnvironment.getImageIcon("remove.png");
+    if (icon==null)
+      _removeRule = new JButton("-");
+    else
+      _removeRule = new JButton(icon);
+    _removeRule.addActionListener(new RemoveBtnActionListener());
+    updateButtons();
+  }
 
-    size = _rulesContainer.size();
-    for (i=0;i<size;i++){
-      rEditor = (BRulerEditorContainer) _rulesContainer.get(i);
-      rEditor.updateState(i, size);
+  /**
+   * Commits the value being edited, if any.
+   */
+  private void stopEditing(){
+    if (_rulesTable.isEditing() && !_rulesTable.getCellEditor().stopCellEditing()){
+      _rulesTable.getCellEditor().cancelCellEditing();
     }
   }
-  private void addBRuleEditor(BRule rule){
-    BRulerEditorContainer rEditor;
 
-    rEditor = new BRulerEditorContainer(_rulesContainer.size(), _rulesContainer.size()+1);
-    rEditor.setRule(rule);
-    _rulesContainer.add(rEditor);
-    updateRuleEditor();
-    _rulesPanel.add(rEditor);
-    _rulesPanel.updateUI();
+  private void selectRule(int row){
+    _rulesTable.getSelectionModel().setSelectionInterval(row, row);
+    _rulesTable.scrollRectToVisible(_rulesTable.getCellRect(row, 0, true));
+  }
+
+  private void updateButtons(){
+    //a filter has at least one rule
+    _removeRule.setEnabled(_rulesModel.getRowCount()>1 && _rulesTable.getSelectedRow()!=-1);
+  }
 
+  private void updateHelp(){
+    int row;
 
+    if (_helpArea==null)
+      return;
+    row = _rulesTable.getSelectedRow();
+    if (row==-1 || row>=_rulesModel.getRowCount() || _rulesModel.getAccessor(row)==null){
+      _helpArea.setText("");
+      return;
+    }
+    if (_rulesModel.getError(row)!=null)
+      _helpArea.setText(getInvalidRuleMessage(row));
+    else
+      _helpArea.setText(BRuleEditor.getHelpMessage(_filterModel, _rulesModel.getAccessor(row), 
+          _rulesModel.getOperator(row)));
   }
 
   private void addBRuleEditor(){
-    BRulerEditorContainer rEditor;
+    int row;
 
-    rEditor = new BRulerEditorContainer(_rulesContainer.size(), _rulesContainer.size()+1);
-    _rulesContainer.add(rEditor);
-    updateRuleEditor();
-    _rulesPanel.add(rEditor);
-    _rulesPanel.updateUI();
+    stopEditing();
+    row = _rulesTable.getSelectedRow();
+    row = (row==-1 ? _rulesModel.getRowCount() : row+1);
+    _rulesModel.insertRule(row);
+    selectRule(row);
   }
 
-  private void removeBRuleEditor(int rankOfEmitter){
-    BRulerEditorContainer rEditor;
+  private void removeBRuleEditor(){
+    int row;
 
-    if (_rulesContainer.size()==1)
+    if (_rulesModel.getRowCount()==1)
+      return;
+    row = _rulesTable.getSelectedRow();
+    if (row==-1)
       return;
-    rEditor = (BRulerEditorContainer) _rulesContainer.get(rankOfEmitter);
-    _rulesContainer.remove(rEditor);
-    _rulesPanel.remove(rEditor);
-    _rulesPanel.updateUI();
-    updateRuleEditor();
+    stopEditing();
+    _rulesModel.removeRule(row);
+    selectRule(Math.min(row, _rulesModel.getRowCount()-1));
   }
 
   private class ExpressionTypeItem {
@@ -346,89 +443,160 @@ public class BFilterEditor extends JPanel {
       return _label;
     }
   }
-  private class BRulerEditorContainer extends JPanel{
-    private static final long serialVersionUID = 6048362952182894464L;
-    private int         _rank;
-    private BRuleEditor _rEditor;
-    private JButton     _addRule;
-    private JButton     _removeRule;
-
-    public BRulerEditorContainer(int rank, int nbRules){
-      createGUI();
-      updateState(rank, nbRules);
-    }
-
-    public void updateState(int rank, int nbRules){
-      _rank = rank;
-      if (_rank>0){
-        _removeRule.setVisible(true);
-        nbRules--;
-        if (rank==nbRules){
-          _addRule.setVisible(true);
-        }
-        else{
-          _addRule.setVisible(false);
-        }
-      }
-      else{
-        if (nbRules!=1){
-          _addRule.setVisible(false);
-          _removeRule.setVisible(true);
-        }
-        else{
-          _addRule.setVisible(true);
-          _removeRule.setVisible(false);
-        }
-      }
+  private class AddBtnActionListener implements ActionListener{
+    public void actionPerformed(ActionEvent event){
+      addBRuleEditor();
+    }
+  }
+
+  private class RemoveBtnActionListener implements ActionListener{
+    public void actionPerformed(ActionEvent event){
+      removeBRuleEditor();
     }
+  }
 
-    public BRule getRule() throws BRuleException{
-      return _rEditor.getRule();
+  private class RuleSelectionListener implements ListSelectionListener{
+    public void valueChanged(ListSelectionEvent e){
+      if (e.getValueIsAdjusting())
+        return;
+      updateButtons();
+      updateHelp();
     }
+  }
 
-    public void setRule(BRule rule){
-      _rEditor.setRule(rule);
+  private class RuleModelListener implements TableModelListener{
+    public void tableChanged(TableModelEvent e){
+      updateButtons();
+      updateHelp();
     }
+  }
 
-    private void createGUI(){
-      JPanel  pnl, btnPanel;
-      ImageIcon icon;
+  /**
+   * Editor of the operator column: the combo box displays the operators of
+   * the accessor of the edited rule.
+   */
+  private class OperatorCellEditor extends DefaultCellEditor{
+    private static final long serialVersionUID = 2240867325815418734L;
 
-      btnPanel = new JPanel(new BorderLayout());
-      icon = EZEnvironment.getImageIcon("add.png");
-      if (icon==null)
-        _addRule = new JButton("+");
-      else
-        _addRule = new JButton(icon);
-      _addRule.addActionListener(new AddBtnActionListener());
-      icon = EZEnvironment.getImageIcon("remove.png");
-      if (icon==null)
-        _removeRule = new JButton("-");
+    @SuppressWarnings("unchecked")
+    public OperatorCellEditor(){
+      super(new JComboBox<String>());
+      ((JComboBox<String>) getComponent()).addPopupMenuListener(new ResizableComboboxPopupMenuListener());
+    }
+    @SuppressWarnings("unchecked")
+    public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column){
+      ((JComboBox<String>) getComponent()).setModel(
+          _rulesModel.getCatalog().createOperatorModel(_rulesModel.getAccessor(row)));
+      return super.getTableCellEditorComponent(table, value, isSelected, row, column);
+    }
+  }
+
+  /**
+   * Editor of the value column: the model is updated as the user types, so
+   * that the value is validated without waiting for the end of the edition.
+   */
+  private class ValueCellEditor extends DefaultCellEditor implements DocumentListener, TableModelListener{
+    private static final long serialVersionUID = -1372958405736620542L;
+    private JTextField _field;
+    private Border     _border;
+    private String     _initialValue;
+    private int        _row = -1;
+
+    public ValueCellEditor(){
+      super(new JTextField());
+      _field = (JTextField) getComponent();
+      _border = _field.getBorder();
+      _field.getDocument().addDocumentListener(this);
+      _rulesModel.addTableModelListener(this);
+    }
+    public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column){
+      Component comp;
+
+      _row = -1;
+      comp = super.getTableCellEditorComponent(table, value, isSelected, row, column);
+      _initialValue = (String) value;
+      _row = row;
+      updateBorder();
+      return comp;
+    }
+    public boolean stopCellEditing(){
+      _row = -1;
+      return super.stopCellEditing();
+    }
+    public void cancelCellEditing(){
+      int row;
+
+      row = _row;
+      _row = -1;
+      if (row!=-1 && row<_rulesModel.getRowCount())
+        _rulesModel.setValueAt(_initialValue, row, BRuleListModel.VALUE_COLUMN);
+      super.cancelCellEditing();
+    }
+    private void updateBorder(){
+      if (_row!=-1 && _row<_rulesModel.getRowCount() && _rulesModel.getError(_row)!=null)
+        _field.setBorder(BorderFactory.createLineBorder(Color.RED));
       else
-        _removeRule = new JButton(icon);
-      _removeRule.addActionListener(new RemoveBtnActionListener());
-      btnPanel.add(_removeRule, BorderLayout.EAST);
-      btnPanel.add(_addRule, BorderLayout.WEST);
-
-      _rEditor = new BRuleEditor(_filterModel, _ruleFactory, _addRule, _removeRule);
-      _rEditor.setHelperArea(_helpArea);
-      pnl = new JPanel();
-      pnl.setLayout(new BorderLayout());
-      pnl.add(_rEditor, BorderLayout.CENTER);
-      pnl.add(btnPanel, BorderLayout.EAST);
-      this.add(pnl);
-    }
-
-    private class AddBtnActionListener implements ActionListener{
-      public void actionPerformed(ActionEvent event){
-        addBRuleEditor();
-      }
+        _field.setBorder(_border);
+    }
+    private void valueChanged(){
+      if (_row!=-1)
+        _rulesModel.setValueAt(_field.getText(), _row, BRuleListModel.VALUE_COLUMN);
+    }
+    public void insertUpdate(DocumentEvent e){
+      valueChanged();
+    }
+    public void removeUpdate(DocumentEvent e){
+      valueChanged();
+    }
+    public void changedUpdate(DocumentEvent e){
+      valueChanged();
+    }
+    public void tableChanged(TableModelEvent e){
+      updateBorder();
     }
+  }
 
-    private class RemoveBtnActionListener implements ActionListener{
-      public void actionPerformed(ActionEvent event){
-        removeBRuleEditor(_rank);
+  /**
+   * Renderer of the value column: the tool tip explains the expected type of
+   * value, or why the rule is invalid.
+   */
+  private class ValueCellRenderer extends DefaultTableCellRenderer{
+    private static final long serialVersionUID = -3986017395302440183L;
+
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, 
+        boolean hasFocus, int row, int column){
+      BAccessorEntry entry;
+      String         error;
+
+      //reset the colors possibly set for an invalid rule
+      setBackground(null);
+      super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+      error = _rulesModel.getError(row);
+      if (error!=null){
+        if (!isSelected)
+          setBackground(INVALID_RULE_COLOR);
+        setToolTipText(error);
+        return this;
       }
+      entry = _rulesModel.getAccessor(row);
+      setToolTipText(entry!=null ? BRuleEditor.getDataTypeTip(entry) : null);
+      return this;
+    }
+  }
+
+  /**
+   * Renderer of the case column: nothing is displayed for accessors that do
+   * not support case insensitive comparison.
+   */
+  private class CaseCellRenderer implements TableCellRenderer{
+    private DefaultTableCellRenderer _empty = new DefaultTableCellRenderer();
+
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, 
+        boolean hasFocus, int row, int column){
+      if (value==null)
+        return _empty.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+      return table.getDefaultRenderer(Boolean.class).getTableCellRendererComponent(
+          table, value, isSelected, hasFocus, row, column);
     }
   }
 }
@@ -22,6 +22,7 @@ import java.awt.Container;
 import java.awt.Dialog;
 import java.awt.Dimension;
 import java.awt.Frame;
+import java.awt.Window;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
@@ -45,11 +46,17 @@ import com.plealog.genericapp.api.EZEnvironment;
 /**
  * This is a BFilter editor conveniently wrapped within a JDialog.
  * 
+ * The dialog can be either shown once at construction time, or built hidden
+ * then displayed as many times as needed using showDialog(). The latter
+ * avoids rebuilding the editor each time a filter has to be edited: see
+ * BFilterEditorDialogCache.
+ * 
  * @author Patrick G. Durand
  */
 public class BFilterEditorDialog extends JDialog implements ActionListener {
   private static final long serialVersionUID = -5714717217384269307L;
   private BFilterEditor    _editor;
+  private BDataAccessors   _filterModel;
   private BFilter          _filter;
   private Component        _parent;
   private JButton          _ok;
@@ -99,8 +106,22 @@ public class BFilterEditorDialog extends JDialog implements ActionListener {
     _parent = frame;
     buildGUI(fModel, filter, filterFactory, ruleFactory, showRulesOnly);
   }
+  /**
+   * Creates a modal BFilterEditorDialog without showing it. Use showDialog()
+   * to edit a filter.
+   */
+  public BFilterEditorDialog(Window owner, String title, BDataAccessors fModel, 
+      BFilterFactory filterFactory, BRuleFactory ruleFactory){
+    super(owner, title, ModalityType.APPLICATION_MODAL);
+    _parent = owner;
+    buildGUI(fModel, null, filterFactory, ruleFactory, false, false);
+  }
   private void buildGUI(BDataAccessors fModel, BFilter filter, BFilterFactory filterFactory, BRuleFactory ruleFactory,
       boolean showRulesOnly){
+    buildGUI(fModel, filter, filterFactory, ruleFactory, showRulesOnly, true);
+  }
+  private void buildGUI(BDataAccessors fModel, BFilter filter, BFilterFactory filterFactory, BRuleFactory ruleFactory,
+      boolean showRulesOnly, boolean show){
     JPanel    buttonPanel;
     Container contentPane;
     boolean   macOS = EZEnvironment.getOSType()==EZEnvironment.MAC_OS;
@@ -116,6 +137,7 @@ public class BFilterEditorDialog extends JDialog implements ActionListener {
     this.getRootPane().setDefaultButton(_ok);
 
     //editor
+    _filterModel = fModel;
     _editor = new BFilterEditor(fModel, filter, filterFactory, ruleFactory, showRulesOnly);
     _editor.setPreferredSize(new Dimension(780, 350));
 
@@ -136,8 +158,28 @@ public class BFilterEditorDialog extends JDialog implements ActionListener {
     contentPane.add(_editor, BorderLayout.CENTER);
     contentPane.add(buttonPanel, BorderLayout.SOUTH);
     this.pack();
+    if (show){
+      centerOnScreen();
+      this.setVisible(true);
+    }
+  }
+
+  /**
+   * Shows this dialog to edit a filter. This method blocks until the user
+   * closes the dialog.
+   * 
+   * @param filter the filter to edit. Null means a new filter.
+   * 
+   * @return the filter entered by the user, or null if the user has cancelled
+   * the edition.
+   */
+  public BFilter showDialog(BFilter filter){
+    _filter = null;
+    _answer = JOptionPane.CANCEL_OPTION;
+    _editor.setFilter(filter);
     centerOnScreen();
     this.setVisible(true);
+    return _filter;
   }
   /**
    * Centers the frame on the screen. 
@@ -189,4 +231,11 @@ public class BFilterEditorDialog extends JDialog implements ActionListener {
   public BFilter getFilter(){
     return _filter;
   }
+
+  /**
+   * Returns the data model used by the editor of this dialog.
+   */
+  public BDataAccessors getFilterModel(){
+    return _filterModel;
+  }
 }
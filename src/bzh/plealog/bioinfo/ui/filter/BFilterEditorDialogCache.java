@@ -0,0 +1,107 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.awt.Window;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.SwingUtilities;
+
+import bzh.plealog.bioinfo.api.filter.BDataAccessors;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+/**
+ * This class manages the BFilterEditorDialog instances of an application: one
+ * dialog per parent window, built once and reused for every edition.
+ * 
+ * Both the parent windows and the dialogs are weakly referenced: once a parent
+ * window is disposed (this also disposes its dialog), the dialog can be
+ * reclaimed by the garbage collector.
+ * 
+ * All methods of this class have to be called from the EDT, except prewarm().
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterEditorDialogCache {
+
+  private static final Map<Window, WeakReference<BFilterEditorDialog>> DIALOGS = 
+      new WeakHashMap<Window, WeakReference<BFilterEditorDialog>>();
+
+  private BFilterEditorDialogCache(){}
+
+  /**
+   * Returns the editor dialog of a parent window. The dialog is created if
+   * needed.
+   * 
+   * @param owner the parent window. Can be null.
+   * @param fModel the data model to use. Cannot be null.
+   */
+  public static BFilterEditorDialog getDialog(Window owner, BDataAccessors fModel){
+    WeakReference<BFilterEditorDialog> ref;
+    BFilterEditorDialog                dialog;
+
+    ref = DIALOGS.get(owner);
+    dialog = ref!=null ? ref.get() : null;
+    if (dialog!=null && dialog.getFilterModel()!=fModel){
+      dialog.dispose();
+      dialog = null;
+    }
+    if (dialog==null){
+      dialog = new BFilterEditorDialog(
+          owner, 
+          FilterMessages.getString("BFilterTable.ui.editorDlg"), 
+          fModel, 
+          null, 
+          null);
+      DIALOGS.put(owner, new WeakReference<BFilterEditorDialog>(dialog));
+    }
+    return dialog;
+  }
+
+  /**
+   * Builds the editor dialog of a parent window, so that the first edition
+   * does not have to wait for it. The dialog is built on the EDT once the
+   * pending events have been handled.
+   * 
+   * @param owner the parent window. Can be null.
+   * @param fModel the data model to use. Cannot be null.
+   */
+  public static void prewarm(final Window owner, final BDataAccessors fModel){
+    //the accessor catalog does not need the EDT
+    BAccessorCatalog.getCatalog(fModel);
+    SwingUtilities.invokeLater(new Runnable(){
+      public void run(){
+        getDialog(owner, fModel);
+      }
+    });
+  }
+
+  /**
+   * Disposes the editor dialog of a parent window.
+   */
+  public static void release(Window owner){
+    WeakReference<BFilterEditorDialog> ref;
+    BFilterEditorDialog                dialog;
+
+    ref = DIALOGS.remove(owner);
+    dialog = ref!=null ? ref.get() : null;
+    if (dialog!=null)
+      dialog.dispose();
+  }
+}
@@ -16,13 +16,13 @@
  */
 package bzh.plealog.bioinfo.ui.filter;
 
-import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.SwingWorker;
 
 import org.apache.log4j.Logger;
 
-import bzh.plealog.bioinfo.api.filter.BFilter;
-import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
-import bzh.plealog.bioinfo.io.filter.FilterSerializer;
 import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
 import bzh.plealog.bioinfo.ui.modules.filter.FilterSystemUI;
 
@@ -31,116 +31,181 @@ import com.plealog.genericapp.api.EZEnvironment;
 /**
  * This is a listener aims at handling BFilter editing operations.
  * 
+ * Filters added, edited or deleted within a BFilterTable are forwarded to a
+ * BFilterRepository. Depending on the repository, writes may be done in the
+ * background: call flush() before quitting the application. Filters deleted
+ * at once (FILTERS_DELETED event) are always removed from the repository in 
+ * the background.
+ * 
  * @author Patrick G. Durand
  */
 public class BFilterEditorListener implements BFilterEditListener {
 
   public static final String FILTER_HEADER_NAME = "filter";
 
-  private static int _filterCounter = 1;
+  private BFilterRepository _repository;
+  private int               _pendingDeletes;
+
   private static final Logger _logger = Logger.getLogger("kb."+"BFilterEditorListener");
 
   /**
-   * Utility method aims at computing the full path to store the data relating
-   * to a new filter.
-   * @param path the absolute path where to store filter data
+   * Constructor. Filters are stored in the central repository, see
+   * FilterSystemUI.getFilterRepository().
    */
-  private static synchronized String getFilterName(String path){
-    String fName;
-    File   file;
-
-    while(true){
-      fName = path+FILTER_HEADER_NAME+_filterCounter+".xml";
-      file = new File(fName);
-      if (file.exists()==false)
-        break;
-      _filterCounter++;
-    }
-    return fName;
+  public BFilterEditorListener(){
   }
 
-  private String saveFilter(BFilter filter, String fName){
-    FilterSerializer  serializer;
-    String               filterDir;
-    File                 file;
+  /**
+   * Constructor.
+   * 
+   * @param repository the repository used to store the filters
+   */
+  public BFilterEditorListener(BFilterRepository repository){
+    _repository = repository;
+  }
 
-    if (filter==null){
-      return fName;
-    }
-    try{
-      if (fName==null){
-        filterDir = FilterSystemUI.getFilterCentralRepositoryPath();
-        fName = BFilterEditorListener.getFilterName(filterDir);
-      }
-      serializer = FilterSystemConfigurator.getSerializer();
-      if (serializer==null){
-        throw new Exception("No serializer defined.");
-      }
-      file = new File(fName);
-      if (file.exists()){
-        file.delete();
+  /**
+   * Returns the repository used to store the filters.
+   */
+  public BFilterRepository getRepository(){
+    return _repository!=null ? _repository : FilterSystemUI.getFilterRepository();
+  }
+
+  /**
+   * Waits until all pending filters have been written.
+   * 
+   * @param timeout maximum time to wait, in milliseconds
+   * 
+   * @return true if all filters have been written, false if the timeout elapsed
+   */
+  public boolean flush(long timeout){
+    BFilterRepository repository;
+    long              end;
+
+    end = System.currentTimeMillis()+timeout;
+    if (!waitForDeletes(timeout))
+      return false;
+    repository = getRepository();
+    return repository==null ? true : repository.flush(Math.max(0, end-System.currentTimeMillis()));
+  }
+
+  private synchronized boolean waitForDeletes(long timeout){
+    long end, remaining;
+
+    end = System.currentTimeMillis()+timeout;
+    while(_pendingDeletes!=0){
+      remaining = end-System.currentTimeMillis();
+      if (remaining<=0)
+        return false;
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
       }
-      serializer.save(filter, file);
     }
-    catch (Exception ex){
+    return true;
+  }
+
+  private synchronized void deletesDone(){
+    _pendingDeletes--;
+    notifyAll();
+  }
+
+  private void saveFilter(BFilterEntry fEntry){
+    BFilterRepository repository;
+
+    repository = getRepository();
+    if (repository==null || fEntry.getFilter()==null){
+      return;
+    }
+    try {
+      repository.save(fEntry);
+    } catch (IOException ex) {
       String msg = FilterMessages.getString("DDFileTypes.filter.err.msg1");
       _logger.warn(msg+": "+ex);
       EZEnvironment.displayErrorMessage(EZEnvironment.getParentFrame(), msg+".");
     }
-    return fName;
   }
 
-  private void filterAdded(BFilterEntry fEntry){
-    String fName;
-
-    fName = saveFilter(fEntry.getFilter(), null);
-    fEntry.setFileName(fName);
-  }
+  private void filterDeleted(BFilterEntry fEntry){
+    BFilterRepository repository;
 
-  private void filterEdited(BFilterEntry fEntry){
-    saveFilter(fEntry.getFilter(), fEntry.getFileName());
+    repository = getRepository();
+    if (repository==null){
+      return;
+    }
+    try {
+      repository.delete(fEntry);
+    } catch (IOException ex) {
+      _logger.info("Unable to delete filter: "+fEntry.getFileName()+": "+ex);
+    }
   }
 
-  private void filterCopied(BFilterEntry fEntry){
-    String fName;
-    fName = saveFilter(fEntry.getFilter(), null);
-    fEntry.setFileName(fName);
-  }
+  /**
+   * Removes a set of filters from the repository in the background. Failures
+   * are reported on the EDT once all filters have been handled.
+   */
+  private void filtersDeleted(final List<BFilterEntry> entries){
+    final BFilterRepository repository;
 
-  private void filterDeleted(BFilterEntry fEntry){
-    String fName;
-    File   f;
-
-    fName = fEntry.getFileName();
-    if (fName!=null){
-      f = new File(fName); 
-      if (f.delete()==false)
-        _logger.info("Unable to delete filter: "+fName);
+    repository = getRepository();
+    if (repository==null || entries.isEmpty()){
+      return;
+    }
+    synchronized(this){
+      _pendingDeletes++;
     }
+    new SwingWorker<Long, Void>(){
+      @Override
+      protected Long doInBackground() throws Exception {
+        long time;
+
+        time = System.currentTimeMillis();
+        try {
+          repository.deleteAll(entries);
+        }
+        finally{
+          deletesDone();
+        }
+        return System.currentTimeMillis()-time;
+      }
+      @Override
+      protected void done() {
+        try {
+          _logger.debug("Deleted "+entries.size()+" filters in "+get()+" ms");
+        } catch (Exception ex) {
+          String msg = FilterMessages.getString("BFilterEditorListener.err.1");
+          _logger.warn(msg+": "+(ex.getCause()!=null ? ex.getCause() : ex));
+          EZEnvironment.displayErrorMessage(EZEnvironment.getParentFrame(), msg+".");
+        }
+      }
+    }.execute();
   }
+
   /**
    * Implementation of BFilterEditListener interface.
    */
   public void filterEdited(BFilterEditEvent event) {
     BFilterEntry fEntry;
 
+    if (event.getType()==BFilterEditEvent.FILTERS_DELETED){
+      filtersDeleted(event.getEntries());
+      return;
+    }
     if (event.getSource() instanceof BFilterEntry == false)
       return;
     fEntry = (BFilterEntry) event.getSource();
 
     switch(event.getType()){
       case BFilterEditEvent.FILTER_ADDED:
-        filterAdded(fEntry);
-        break;
       case BFilterEditEvent.FILTER_EDITED:
-        filterEdited(fEntry);
+      case BFilterEditEvent.FILTER_COPIED:
+        saveFilter(fEntry);
         break;
       case BFilterEditEvent.FILTER_DELETED:
         filterDeleted(fEntry);
         break;
-      case BFilterEditEvent.FILTER_COPIED:
-        filterCopied(fEntry);
-        break;
     }
   }
 
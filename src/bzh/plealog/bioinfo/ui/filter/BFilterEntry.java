@@ -16,18 +16,40 @@
  */
 package bzh.plealog.bioinfo.ui.filter;
 
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import bzh.plealog.bioinfo.api.filter.BFilter;
 
 /**
  * This is bag to put BFilter in the BFilterTable. This entry associates
  * a BFilter with additional data.
  * 
+ * An entry can be created in lazy mode: only the header of the filter (name,
+ * description and number of rules) is known, and the BFilter itself is
+ * loaded the first time getFilter() is called.
+ * 
  * @author Patrick G. Durand
  */
 public class BFilterEntry{
   private String  fileName;
   private BFilter filter;
   private boolean selected;
+  private String  name;
+  private String  description;
+  private int     ruleCount;
+  private LazyLoader loader;
+  private boolean unreadable;
+  private BFilterRuleSummary ruleSummary;
+  private int     searchId = -1;
+  private CollationKey nameKey;
+  private CollationKey descriptionKey;
+
+  //shared by all entries; a Collator is not thread-safe
+  private static final Collator COLLATOR = Collator.getInstance();
+  //number of entries that have failed to load so far
+  private static final AtomicInteger UNREADABLE_COUNT = new AtomicInteger();
   
   public BFilterEntry(){}
 
@@ -35,6 +57,21 @@ public class BFilterEntry{
     setFileName(file);
     setFilter(filter);
   }
+
+  /**
+   * Creates an entry in lazy mode.
+   * 
+   * @param file the absolute path of the filter file
+   * @param header the header of the filter
+   * @param loader the object used to load the BFilter on first access
+   */
+  public BFilterEntry(String file, BFilterHeader header, LazyLoader loader){
+    setFileName(file);
+    this.name = header.getName();
+    this.description = header.getDescription();
+    this.ruleCount = header.getRuleCount();
+    this.loader = loader;
+  }
   /**
    * Returns the file name where the BFilter has been saved. This must be
    * an absolute path.
@@ -50,16 +87,162 @@ public class BFilterEntry{
     this.fileName = fileName;
   }
   /**
-   * Returns the BFilter.
+   * Returns the BFilter. In lazy mode, the BFilter is loaded when this method
+   * is called for the first time. May return null if it cannot be loaded.
    */
-  public BFilter getFilter() {
+  public synchronized BFilter getFilter() {
+    if (filter==null && loader!=null){
+      filter = loader.loadFilter(this);
+      setUnreadable(filter==null);
+      loader = null;
+    }
     return filter;
   }
   /**
    * Sets the BFilter.
    */
-  public void setFilter(BFilter filter) {
+  public synchronized void setFilter(BFilter filter) {
     this.filter = filter;
+    this.loader = null;
+    this.unreadable = false;
+    this.ruleSummary = null;
+    if (filter!=null){
+      this.name = filter.getName();
+      this.description = filter.getDescription();
+      this.ruleCount = filter.size();
+    }
+  }
+
+  /**
+   * Returns the rules of the BFilter ready to be displayed. The summary is
+   * computed once, then cached until setFilter() is called. In lazy mode, this
+   * method reads the BFilter but does not keep it: only the summary is 
+   * cached. May return null if it cannot be loaded.
+   */
+  public synchronized BFilterRuleSummary getRuleSummary(){
+    BFilter f;
+
+    if (ruleSummary==null){
+      f = readFilter();
+      if (f!=null && ruleSummary==null)
+        ruleSummary = BFilterRuleSummary.create(f);
+    }
+    return ruleSummary;
+  }
+
+  /**
+   * Returns the BFilter. In lazy mode, the BFilter is read but not kept by
+   * this entry: only its rule summary is cached. May return null if it cannot
+   * be loaded.
+   */
+  synchronized BFilter readFilter(){
+    BFilter f;
+
+    if (filter!=null || loader==null)
+      return filter;
+    f = loader.loadFilter(this);
+    if (f==null){
+      setUnreadable(true);
+      loader = null;
+    }
+    else if (ruleSummary==null){
+      ruleSummary = BFilterRuleSummary.create(f);
+    }
+    return f;
+  }
+
+  /**
+   * Figures out whether or not the BFilter is available without loading it.
+   */
+  public synchronized boolean isLoaded(){
+    return loader==null;
+  }
+
+  /**
+   * Figures out whether or not the BFilter of a lazy entry has failed to
+   * load. Such an entry has no BFilter. Does not load the filter.
+   */
+  public synchronized boolean isUnreadable(){
+    return unreadable;
+  }
+
+  private void setUnreadable(boolean unreadable){
+    if (unreadable && !this.unreadable)
+      UNREADABLE_COUNT.incrementAndGet();
+    this.unreadable = unreadable;
+  }
+
+  /**
+   * Returns the number of entries that have failed to load so far. Used to
+   * figure out whether a list computed from the unreadable state of entries
+   * is still valid.
+   */
+  static int getUnreadableCount(){
+    return UNREADABLE_COUNT.get();
+  }
+
+  /**
+   * Returns the name of the BFilter. Does not load the filter.
+   */
+  public synchronized String getName(){
+    return filter!=null ? filter.getName() : name;
+  }
+
+  /**
+   * Returns the description of the BFilter. Does not load the filter.
+   */
+  public synchronized String getDescription(){
+    return filter!=null ? filter.getDescription() : description;
+  }
+
+  /**
+   * Returns the number of rules of the BFilter. Does not load the filter.
+   */
+  public synchronized int getRuleCount(){
+    return filter!=null ? filter.size() : ruleCount;
+  }
+
+  /**
+   * Returns the collation key of the name of the BFilter. The key is computed
+   * once, then cached until the name changes. Does not load the filter.
+   */
+  public synchronized CollationKey getNameKey(){
+    nameKey = getCollationKey(nameKey, getName());
+    return nameKey;
+  }
+
+  /**
+   * Returns the collation key of the description of the BFilter. The key is
+   * computed once, then cached until the description changes. Does not load
+   * the filter.
+   */
+  public synchronized CollationKey getDescriptionKey(){
+    descriptionKey = getCollationKey(descriptionKey, getDescription());
+    return descriptionKey;
+  }
+
+  private static CollationKey getCollationKey(CollationKey key, String str){
+    if (str==null)
+      str = "";
+    if (key!=null && key.getSourceString().equals(str))
+      return key;
+    synchronized(COLLATOR){
+      return COLLATOR.getCollationKey(str);
+    }
+  }
+
+  /**
+   * Returns the identifier of this entry within a BFilterSearchIndex.
+   */
+  int getSearchId(){
+    return searchId;
+  }
+
+  /**
+   * Sets the identifier of this entry within a BFilterSearchIndex.
+   */
+  void setSearchId(int id){
+    searchId = id;
   }
 
   public boolean isSelected() {
@@ -70,4 +253,15 @@ public class BFilterEntry{
     this.selected = selected;
   }
 
+  /**
+   * This interface defines the object used to load the BFilter of an entry
+   * created in lazy mode.
+   */
+  public interface LazyLoader {
+    /**
+     * Loads the BFilter of an entry. Returns null if the BFilter cannot be
+     * loaded.
+     */
+    public BFilter loadFilter(BFilterEntry entry);
+  }
 }
@@ -0,0 +1,190 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.awt.Component;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+import com.plealog.genericapp.api.EZEnvironment;
+
+/**
+ * This class exports a set of filters as a single zip bundle in the
+ * background. Filters are streamed one at a time into the zip, which is 
+ * written to a temporary file then renamed once complete: a cancelled or 
+ * failed export never leaves a partial bundle. Progress is displayed with a 
+ * ProgressMonitor which also enables the user to cancel the export.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterExportWorker extends SwingWorker<Integer, Void> {
+  private Component          _parent;
+  private List<BFilterEntry> _entries;
+  private File               _zipFile;
+  private FilterSerializer   _serializer;
+  private ProgressMonitor    _monitor;
+  private List<String>       _failures;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterExportWorker");
+
+  /**
+   * Constructor.
+   * 
+   * @param parent the parent component of the progress monitor and messages
+   * @param entries the filters to export
+   * @param zipFile the zip file to create
+   * @param serializer the serializer used to write the filters
+   */
+  public BFilterExportWorker(Component parent, List<BFilterEntry> entries, File zipFile, 
+      FilterSerializer serializer){
+    _parent = parent;
+    _entries = new ArrayList<BFilterEntry>(entries);
+    _zipFile = zipFile;
+    _serializer = serializer;
+    _failures = new ArrayList<String>();
+  }
+
+  /**
+   * Starts the export and displays its progress.
+   */
+  public void start(){
+    _monitor = new ProgressMonitor(_parent, FilterMessages.getString("BFilterTable.export.dlg.header"), 
+        null, 0, 100);
+    _monitor.setMillisToDecideToPopup(200);
+    addPropertyChangeListener(new PropertyChangeListener() {
+      @Override
+      public void propertyChange(PropertyChangeEvent evt) {
+        if (!"progress".equals(evt.getPropertyName()))
+          return;
+        _monitor.setProgress((Integer) evt.getNewValue());
+        if (_monitor.isCanceled())
+          cancel(false);
+      }
+    });
+    execute();
+  }
+
+  /**
+   * Returns the name of a filter within the zip bundle.
+   */
+  private static String getEntryName(BFilterEntry entry, HashSet<String> used){
+    String base, name;
+    int    i = 1;
+
+    if (entry.getFileName()!=null)
+      base = new File(entry.getFileName()).getName();
+    else
+      base = BFilterEditorListener.FILTER_HEADER_NAME+BFilterLoader.FILTER_FILE_EXT;
+    base = base.substring(0, base.length()-BFilterLoader.FILTER_FILE_EXT.length());
+    name = base+BFilterLoader.FILTER_FILE_EXT;
+    while(!used.add(name)){
+      name = base+"_"+(i++)+BFilterLoader.FILTER_FILE_EXT;
+    }
+    return name;
+  }
+
+  @Override
+  protected Integer doInBackground() throws Exception {
+    HashSet<String> used;
+    BFilterEntry    entry;
+    BFilter         filter;
+    File            tmpZip, tmpXml;
+    int             i, size, n = 0;
+
+    size = _entries.size();
+    used = new HashSet<String>();
+    tmpZip = File.createTempFile(_zipFile.getName(), ".tmp", _zipFile.getAbsoluteFile().getParentFile());
+    //FilterSerializer only writes files
+    tmpXml = File.createTempFile("bft_export", BFilterLoader.FILTER_FILE_EXT);
+    try{
+      try(ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpZip)))){
+        for(i=0;i<size && !isCancelled();i++){
+          entry = _entries.get(i);
+          filter = entry.getFilter();
+          if (filter==null){
+            synchronized(_failures){
+              _failures.add(entry.getName());
+            }
+            continue;
+          }
+          _serializer.save(filter, tmpXml);
+          zos.putNextEntry(new ZipEntry(getEntryName(entry, used)));
+          Files.copy(tmpXml.toPath(), zos);
+          zos.closeEntry();
+          n++;
+          setProgress((i+1)*100/size);
+        }
+      }
+      if (isCancelled()){
+        return n;
+      }
+      Files.move(tmpZip.toPath(), _zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally{
+      tmpXml.delete();
+      tmpZip.delete();
+    }
+    return n;
+  }
+
+  @Override
+  protected void done() {
+    String msg = null;
+
+    _monitor.close();
+    try {
+      get();
+    } catch (CancellationException e) {
+      //nothing has been written
+    } catch (Exception e) {
+      _logger.warn("Unable to export filters: "+e);
+      msg = FilterMessages.getString("BFilterTable.export.err");
+    }
+    synchronized(_failures){
+      if (msg==null && !_failures.isEmpty()){
+        _logger.warn("Unable to export: "+_failures);
+        msg = new MessageFormat(FilterMessages.getString("BFilterTable.export.err2")).format(
+            new Object[]{_failures.size()});
+      }
+    }
+    if (msg!=null){
+      EZEnvironment.displayWarnMessage(_parent, msg);
+    }
+  }
+}
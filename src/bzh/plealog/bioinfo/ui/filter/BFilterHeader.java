@@ -0,0 +1,150 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class contains the header of a BFilter XML file: name, description and
+ * number of rules. The header is obtained with a streaming scan of the file,
+ * which is much cheaper than a full deserialization of the filter.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterHeader {
+  private String _name;
+  private String _description;
+  private int    _ruleCount;
+
+  private static final String NAME_TAG = "name";
+  private static final String DESCRIPTION_TAG = "description";
+  private static final String RULE_TAG = "BRule";
+
+  private static XMLInputFactory _factory;
+
+  private BFilterHeader(){}
+
+  private static synchronized XMLInputFactory getFactory(){
+    if (_factory==null){
+      _factory = XMLInputFactory.newInstance();
+      _factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      _factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+    return _factory;
+  }
+
+  /**
+   * Scans a BFilter XML file.
+   *
+   * @param file the filter file
+   *
+   * @return the header of the filter
+   *
+   * @throws IOException if the file cannot be read or is not a valid XML file
+   */
+  public static BFilterHeader scan(File file) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file), 8*1024)){
+      return scan(in);
+    }
+  }
+
+  /**
+   * Scans a BFilter XML stream. This method does not close the stream.
+   *
+   * @param in the XML stream
+   *
+   * @return the header of the filter
+   *
+   * @throws IOException if the stream cannot be read or does not contain a
+   * valid XML document
+   */
+  public static BFilterHeader scan(InputStream in) throws IOException {
+    XMLStreamReader reader = null;
+    BFilterHeader   header;
+    String          tag;
+    int             depth = 0;
+
+    header = new BFilterHeader();
+    try {
+      reader = getFactory().createXMLStreamReader(in);
+      while(reader.hasNext()){
+        switch(reader.next()){
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            tag = reader.getLocalName();
+            //depth 1 is the BFilter element, depth 2 its fields and
+            //depth 3 the rules
+            if (depth==2 && NAME_TAG.equals(tag)){
+              header._name = reader.getElementText();
+              depth--;
+            }
+            else if (depth==2 && DESCRIPTION_TAG.equals(tag)){
+              header._description = reader.getElementText();
+              depth--;
+            }
+            else if (depth==3 && RULE_TAG.equals(tag)){
+              header._ruleCount++;
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            depth--;
+            break;
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException(e.toString());
+    }
+    finally{
+      if (reader!=null){
+        try {reader.close();} catch (XMLStreamException e) {}
+      }
+    }
+    if (header._name==null)
+      throw new IOException("not a BFilter file");
+    return header;
+  }
+
+  /**
+   * Returns the name of the filter.
+   */
+  public String getName() {
+    return _name;
+  }
+
+  /**
+   * Returns the description of the filter. May return null.
+   */
+  public String getDescription() {
+    return _description;
+  }
+
+  /**
+   * Returns the number of rules of the filter.
+   */
+  public int getRuleCount() {
+    return _ruleCount;
+  }
+}
@@ -0,0 +1,235 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.awt.Component;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+import com.plealog.genericapp.api.EZEnvironment;
+
+/**
+ * This class imports a set of filter files in the background. Each file can
+ * be either a filter XML file or a zip bundle of filter XML files. Files are
+ * parsed in parallel by chunks using a BFilterLoader; each chunk is handed to
+ * the BFilterTable at once. Progress is displayed with a ProgressMonitor which
+ * also enables the user to cancel the import: chunks already imported are
+ * kept.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterImportWorker extends SwingWorker<Integer, List<BFilterEntry>> {
+  private BFilterTable    _table;
+  private File[]          _files;
+  private BFilterLoader   _loader;
+  private ProgressMonitor _monitor;
+  private File            _tmpDir;
+  private List<String>    _failures;
+
+  //number of files parsed between two updates of the table
+  private static final int CHUNK_SIZE = 64;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterImportWorker");
+
+  /**
+   * Constructor.
+   * 
+   * @param table the table where to add the imported filters
+   * @param files the files to import
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to read the filter files
+   */
+  public BFilterImportWorker(BFilterTable table, File[] files, BOperatorAccessors fModel, 
+      FilterSerializer serializer){
+    _table = table;
+    _files = files;
+    _loader = new BFilterLoader(fModel, serializer);
+    _failures = new ArrayList<String>();
+  }
+
+  /**
+   * Starts the import and displays its progress.
+   * 
+   * @param parent the parent component of the progress monitor
+   */
+  public void start(Component parent){
+    _monitor = new ProgressMonitor(parent, FilterMessages.getString("BFilterTable.import.dlg.header"), 
+        null, 0, 100);
+    _monitor.setMillisToDecideToPopup(200);
+    addPropertyChangeListener(new PropertyChangeListener() {
+      @Override
+      public void propertyChange(PropertyChangeEvent evt) {
+        if (!"progress".equals(evt.getPropertyName()))
+          return;
+        _monitor.setProgress((Integer) evt.getNewValue());
+        if (_monitor.isCanceled())
+          cancel(false);
+      }
+    });
+    execute();
+  }
+
+  @Override
+  protected Integer doInBackground() throws Exception {
+    try{
+      return importFiles();
+    }
+    finally{
+      deleteTmpDir();
+    }
+  }
+
+  private int importFiles() throws Exception {
+    ArrayList<File>         files;
+    ArrayList<BFilterEntry> entries;
+    BFilterLoader.LoadResult result;
+    File[]                  chunk;
+    int                     i, size, n = 0;
+
+    files = new ArrayList<File>();
+    for(File f : _files){
+      if (isCancelled())
+        return n;
+      if (f.getName().toLowerCase().endsWith(".zip"))
+        files.addAll(extract(f));
+      else
+        files.add(f);
+    }
+    size = files.size();
+    for(i=0;i<size && !isCancelled();i+=CHUNK_SIZE){
+      chunk = files.subList(i, Math.min(size, i+CHUNK_SIZE)).toArray(new File[0]);
+      result = _loader.load(chunk);
+      entries = new ArrayList<BFilterEntry>();
+      for(BFilterEntry entry : result.getEntries()){
+        //imported filters are stored as new filters of the repository
+        entries.add(new BFilterEntry(null, entry.getFilter()));
+      }
+      synchronized(_failures){
+        for(String failure : result.getFailures()){
+          _failures.add(new File(failure).getName());
+        }
+      }
+      n += entries.size();
+      publish(entries);
+      setProgress(Math.min(100, (i+chunk.length)*100/size));
+    }
+    return n;
+  }
+
+  /**
+   * Extracts the filter files of a zip bundle in a temporary directory. The
+   * serializer can only read plain files.
+   */
+  private List<File> extract(File zipFile) throws IOException {
+    ArrayList<File> files;
+    ZipEntry        entry;
+    String          name;
+    File            file;
+    int             idx;
+
+    files = new ArrayList<File>();
+    if (_tmpDir==null){
+      _tmpDir = Files.createTempDirectory("bft_import").toFile();
+    }
+    try(ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))){
+      while((entry=zis.getNextEntry())!=null && !isCancelled()){
+        name = entry.getName();
+        idx = name.lastIndexOf('/');
+        name = idx==-1 ? name : name.substring(idx+1);
+        //also discard meta-data files such as the ones created by Mac OS X
+        if (entry.isDirectory() || name.startsWith(".") 
+            || !name.toLowerCase().endsWith(BFilterLoader.FILTER_FILE_EXT))
+          continue;
+        //entries are numbered since several ones may have the same name
+        file = new File(_tmpDir, files.size()+"_"+name);
+        Files.copy(zis, file.toPath());
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  @Override
+  protected void process(List<List<BFilterEntry>> chunks) {
+    ArrayList<BFilterEntry> entries;
+
+    entries = new ArrayList<BFilterEntry>();
+    for(List<BFilterEntry> chunk : chunks){
+      entries.addAll(chunk);
+    }
+    _table.addImportedEntries(entries);
+  }
+
+  @Override
+  protected void done() {
+    String msg = null;
+
+    _monitor.close();
+    try {
+      get();
+    } catch (CancellationException e) {
+      //chunks already imported are kept
+    } catch (Exception e) {
+      _logger.warn("Unable to import filters: "+e);
+      msg = FilterMessages.getString("BFilterTable.import.err");
+    }
+    synchronized(_failures){
+      if (msg==null && !_failures.isEmpty()){
+        _logger.warn("Unable to import: "+_failures);
+        msg = new MessageFormat(FilterMessages.getString("BFilterTable.import.err2")).format(
+            new Object[]{_failures.size()});
+      }
+    }
+    if (msg!=null){
+      EZEnvironment.displayWarnMessage(_table, msg);
+    }
+  }
+
+  private void deleteTmpDir(){
+    File[] files;
+
+    if (_tmpDir==null)
+      return;
+    files = _tmpDir.listFiles();
+    if (files!=null){
+      for(File f : files){
+        f.delete();
+      }
+    }
+    _tmpDir.delete();
+  }
+}
@@ -0,0 +1,421 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterFactory;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+/**
+ * This class loads a directory of BFilter XML files using a fork-join pool.
+ * Each file is parsed independently so that a corrupted file does not prevent
+ * the others from being loaded. When loading a directory, a BFilterSnapshot
+ * can be used to avoid parsing again the files that have not changed.
+ * 
+ * In lazy mode, the loader only scans the header of the files that are not
+ * available from the snapshot (see BFilterHeader): the BFilter are then
+ * loaded on demand. warmUp() reads them in the background to update the
+ * snapshot and the rule summaries, without keeping them in memory.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterLoader implements BFilterEntry.LazyLoader {
+
+  public static final String FILTER_FILE_EXT = ".xml";
+
+  private BOperatorAccessors _filterModel;
+  private FilterSerializer   _serializer;
+  private BFilterFactory     _filterFactory;
+  private boolean            _useSnapshot;
+  private boolean            _lazy;
+
+  //number of files handled by a single fork-join task
+  private static final int TASK_THRESHOLD = 16;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterLoader");
+  private static final MessageFormat LOAD_ERR_FORMATTER = new MessageFormat(
+      FilterMessages.getString("FilterManagerUI.err.4"));
+
+  private static ForkJoinPool _pool;
+
+  /**
+   * Constructor.
+   *
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to read filter files
+   */
+  public BFilterLoader(BOperatorAccessors fModel, FilterSerializer serializer){
+    _filterModel = fModel;
+    _serializer = serializer;
+    _filterFactory = FilterSystemConfigurator.getFilterFactory();
+  }
+
+  /**
+   * Figures out whether or not a BFilterSnapshot has to be used when loading
+   * a directory. Default is false.
+   */
+  public void setUseSnapshot(boolean useSnapshot){
+    _useSnapshot = useSnapshot;
+  }
+
+  /**
+   * Figures out whether or not filters have to be loaded in lazy mode. 
+   * Default is false.
+   */
+  public void setLazy(boolean lazy){
+    _lazy = lazy;
+  }
+
+  private static synchronized ForkJoinPool getPool(){
+    if (_pool==null){
+      _pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return _pool;
+  }
+
+  /**
+   * Returns the filter files contained in a directory. Only files having the
+   * extension FILTER_FILE_EXT are returned. Empty files are skipped: these are
+   * names allocated by a BFilterNameAllocator but not yet written.
+   */
+  public static File[] listFilterFiles(File directory){
+    File[] files;
+
+    files = directory.listFiles(new FilterFileFilter());
+    return files==null ? new File[0] : files;
+  }
+
+  /**
+   * Loads all the filter files contained in a directory.
+   *
+   * @param directory the directory to scan
+   *
+   * @return the result of the load. Never returns null.
+   */
+  public LoadResult load(File directory){
+    return load(directory, null);
+  }
+
+  /**
+   * Loads all the filter files contained in a directory.
+   *
+   * @param directory the directory to scan
+   * @param listener notified each time a set of files has been loaded. May
+   * be null.
+   *
+   * @return the result of the load. Never returns null.
+   */
+  public LoadResult load(File directory, LoadListener listener){
+    BFilterSnapshot snapshot;
+    LoadResult      result;
+
+    if (!_useSnapshot || _filterFactory==null){
+      return load(listFilterFiles(directory), null, listener);
+    }
+    snapshot = new BFilterSnapshot(directory);
+    snapshot.read();
+    result = load(listFilterFiles(directory), snapshot, listener);
+    if (result._lazyEntries==0){
+      snapshot.write();
+    }
+    else{
+      //the snapshot will be updated by warmUp()
+      result._snapshot = snapshot;
+    }
+    return result;
+  }
+
+  /**
+   * Loads a set of filter files.
+   *
+   * @param files the files to load
+   *
+   * @return the result of the load. Never returns null.
+   */
+  public LoadResult load(File[] files){
+    return load(files, null, null);
+  }
+
+  private LoadResult load(File[] files, BFilterSnapshot snapshot, LoadListener listener){
+    LoadResult result;
+    long       time;
+
+    time = System.currentTimeMillis();
+    if (files==null || files.length==0){
+      result = new LoadResult();
+    }
+    else{
+      result = getPool().invoke(new LoadTask(files, 0, files.length, snapshot, listener));
+    }
+    result._time = System.currentTimeMillis()-time;
+    return result;
+  }
+
+  /**
+   * Reads in the background the BFilter of the entries that were created in
+   * lazy mode, to compute their rule summary. The entries stay in lazy mode.
+   * If a BFilterSnapshot was used during the load, it is updated once all
+   * BFilters have been read.
+   * 
+   * @param result the result of a previous call to load()
+   */
+  public void warmUp(final LoadResult result){
+    if (result._lazyEntries==0)
+      return;
+    getPool().execute(new Runnable() {
+      @Override
+      public void run() {
+        BFilterSnapshot snapshot;
+        BFilterEntry    entry;
+        BFilter         filter;
+        int             i, size;
+
+        snapshot = result._snapshot;
+        //the records of the snapshot hold the filters until it is written
+        result._snapshot = null;
+        size = result._entries.size();
+        for(i=0;i<size;i++){
+          entry = result._entries.get(i);
+          if (entry.isLoaded())
+            continue;
+          filter = entry.readFilter();
+          if (filter!=null && snapshot!=null){
+            snapshot.put(new File(entry.getFileName()), new BFilterIO(filter));
+          }
+        }
+        if (snapshot!=null){
+          snapshot.write();
+        }
+      }
+    });
+  }
+
+  /**
+   * Implementation of BFilterEntry.LazyLoader interface.
+   */
+  @Override
+  public BFilter loadFilter(BFilterEntry entry){
+    File file;
+
+    file = new File(entry.getFileName());
+    try {
+      return _serializer.load(_filterModel, file);
+    } catch (Exception e) {
+      _logger.warn(LOAD_ERR_FORMATTER.format(new Object[]{file.getName(), e.toString()}));
+      return null;
+    }
+  }
+
+  /**
+   * Loads a single filter file. Return null if the file cannot be loaded.
+   */
+  protected BFilterEntry loadEntry(File file, LoadResult result, BFilterSnapshot snapshot){
+    BFilterEntry entry;
+    BFilterIO    filterIO;
+    BFilter      filter;
+
+    result._files++;
+    result._bytes += file.length();
+    try {
+      filterIO = snapshot!=null ? snapshot.get(file) : null;
+      if (filterIO!=null){
+        filter = _filterFactory.createFilter(_filterModel, filterIO);
+        result._cachedFiles++;
+      }
+      else if (_lazy){
+        entry = new BFilterEntry(file.getAbsolutePath(), BFilterHeader.scan(file), this);
+        result._lazyEntries++;
+        return entry;
+      }
+      else{
+        //FilterSerializer creates BFilter through the BFilterIO constructor,
+        //so the returned object is fully initialized: no need to clone it
+        filter = _serializer.load(_filterModel, file);
+        if (snapshot!=null){
+          snapshot.put(file, new BFilterIO(filter));
+        }
+      }
+    } catch (Exception e) {//IOException, FilterSerializerException and XStream runtime errors
+      result._failures.add(file.getAbsolutePath());
+      _logger.warn(LOAD_ERR_FORMATTER.format(new Object[]{file.getName(), e.toString()}));
+      return null;
+    }
+    return new BFilterEntry(file.getAbsolutePath(), filter);
+  }
+
+  /**
+   * Fork-join task loading a range of files.
+   */
+  private class LoadTask extends RecursiveTask<LoadResult> {
+    private static final long serialVersionUID = -3064196624467713325L;
+    private File[] _files;
+    private int    _from;
+    private int    _to;
+    private BFilterSnapshot _snapshot;
+    private LoadListener    _listener;
+
+    public LoadTask(File[] files, int from, int to, BFilterSnapshot snapshot, LoadListener listener){
+      _files = files;
+      _from = from;
+      _to = to;
+      _snapshot = snapshot;
+      _listener = listener;
+    }
+
+    @Override
+    protected LoadResult compute() {
+      LoadResult   result, right;
+      LoadTask     leftTask, rightTask;
+      BFilterEntry entry;
+      int          i, mid;
+
+      if (_to-_from<=TASK_THRESHOLD){
+        result = new LoadResult();
+        for(i=_from;i<_to;i++){
+          entry = loadEntry(_files[i], result, _snapshot);
+          if (entry!=null){
+            result._entries.add(entry);
+          }
+        }
+        if (_listener!=null){
+          _listener.filesLoaded(new ArrayList<BFilterEntry>(result._entries), _to-_from, _files.length);
+        }
+        return result;
+      }
+      mid = (_from+_to)>>>1;
+      leftTask = new LoadTask(_files, _from, mid, _snapshot, _listener);
+      rightTask = new LoadTask(_files, mid, _to, _snapshot, _listener);
+      rightTask.fork();
+      result = leftTask.compute();
+      right = rightTask.join();
+      result.merge(right);
+      return result;
+    }
+  }
+
+  /**
+   * This interface defines an object notified while a directory is loaded,
+   * so that filters can be displayed before all files are read.
+   */
+  public interface LoadListener {
+    /**
+     * Called each time a set of files has been loaded. This method is called
+     * from the threads of the loader, in no particular order.
+     * 
+     * @param entries the filters read from these files
+     * @param files the number of files that have been handled
+     * @param totalFiles the total number of files to load
+     */
+    public void filesLoaded(List<BFilterEntry> entries, int files, int totalFiles);
+  }
+
+  private static class FilterFileFilter implements FileFilter {
+    @Override
+    public boolean accept(File f) {
+      return f.getName().toLowerCase().endsWith(FILTER_FILE_EXT) && f.isFile() && f.length()!=0;
+    }
+  }
+
+  /**
+   * This class contains the filters loaded by a BFilterLoader as well as some
+   * statistics about the load.
+   */
+  public static class LoadResult {
+    private List<BFilterEntry> _entries = new ArrayList<BFilterEntry>();
+    private List<String>       _failures = new ArrayList<String>();
+    private int                _files;
+    private int                _cachedFiles;
+    private int                _lazyEntries;
+    private BFilterSnapshot    _snapshot;
+    private long               _bytes;
+    private long               _time;
+
+    private void merge(LoadResult other){
+      _entries.addAll(other._entries);
+      _failures.addAll(other._failures);
+      _files += other._files;
+      _cachedFiles += other._cachedFiles;
+      _lazyEntries += other._lazyEntries;
+      _bytes += other._bytes;
+    }
+
+    /**
+     * Returns the loaded filters.
+     */
+    public List<BFilterEntry> getEntries() {
+      return _entries;
+    }
+
+    /**
+     * Returns the absolute path of the files that could not be loaded.
+     */
+    public List<String> getFailures() {
+      return Collections.unmodifiableList(_failures);
+    }
+
+    /**
+     * Returns the number of files that have been read.
+     */
+    public int getFiles() {
+      return _files;
+    }
+
+    /**
+     * Returns the number of files that have been retrieved from the
+     * BFilterSnapshot instead of being parsed.
+     */
+    public int getCachedFiles() {
+      return _cachedFiles;
+    }
+
+    /**
+     * Returns the number of entries created in lazy mode.
+     */
+    public int getLazyEntries() {
+      return _lazyEntries;
+    }
+
+    /**
+     * Returns the total size of the files that have been read.
+     */
+    public long getBytes() {
+      return _bytes;
+    }
+
+    /**
+     * Returns the time spent to load the files, in milliseconds.
+     */
+    public long getTime() {
+      return _time;
+    }
+  }
+}
@@ -34,7 +34,8 @@ public interface BFilterManager {
 	
 	/**
 	 * Returns a list of all Filters available. The returned list contains
-	 * String objects, each of them being the alias name of a Filter.
+	 * String objects, each of them being the alias name of a Filter. It
+	 * cannot be modified.
 	 */
 	public List<String> getFilterAliases();
 	
@@ -0,0 +1,56 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This is a BFilterRepository keeping its filters in memory only. It is
+ * intended to be used by batch jobs that do not need to persist filters.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterMemoryRepository extends AbstractBFilterRepository {
+
+  public BFilterMemoryRepository(){
+    super();
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param entries initial content of the repository
+   */
+  public BFilterMemoryRepository(List<BFilterEntry> entries){
+    super();
+    storageChanged(entries, Collections.<BFilterEntry>emptyList(), Collections.<BFilterEntry>emptyList());
+  }
+
+  @Override
+  protected List<BFilterEntry> doLoadAll() {
+    return getEntries();
+  }
+
+  @Override
+  protected void doSave(BFilterEntry entry) {
+  }
+
+  @Override
+  protected void doDelete(BFilterEntry entry) {
+  }
+}
@@ -0,0 +1,145 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class allocates the file names of new filters within a directory:
+ * filter1.xml, filter2.xml, etc.
+ *
+ * The directory is scanned once to find the highest index in use. Then, each
+ * allocation takes the next index and atomically creates an empty file with
+ * that name: this creation is the collision check, so several applications
+ * sharing the same directory never get the same name.
+ *
+ * An empty file that has not been written for a while is a name whose filter
+ * was never saved, e.g. the application stopped before. Such placeholders are
+ * deleted when the directory is scanned, and their names are reused.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterNameAllocator {
+  private File          _directory;
+  private String        _prefix;
+  private String        _suffix;
+  private AtomicInteger _counter;
+
+  //an empty file older than that is a stale placeholder (ms); filters are
+  //written within seconds after their name is allocated
+  private static final long STALE_PLACEHOLDER_DELAY = 10L*60L*1000L;
+
+  /**
+   * Constructor.
+   *
+   * @param directory the directory where to create the files
+   * @param prefix the prefix of the file names
+   * @param suffix the suffix of the file names, including the extension
+   */
+  public BFilterNameAllocator(File directory, String prefix, String suffix){
+    _directory = directory;
+    _prefix = prefix;
+    _suffix = suffix;
+    _counter = new AtomicInteger(scanHighestIndex());
+  }
+
+  /**
+   * Returns the highest index used by the files of the directory. Stale
+   * placeholders are deleted and their index is not taken into account.
+   */
+  private int scanHighestIndex(){
+    File[] files;
+    long   staleTime;
+    int    idx, max = 0;
+
+    files = _directory.listFiles();
+    if (files==null)
+      return 0;
+    staleTime = System.currentTimeMillis()-STALE_PLACEHOLDER_DELAY;
+    for(File file : files){
+      idx = getIndex(file.getName());
+      if (idx==0)
+        continue;
+      if (file.length()==0 && file.lastModified()<staleTime && file.isFile() && file.delete())
+        continue;
+      max = Math.max(max, idx);
+    }
+    return max;
+  }
+
+  /**
+   * Returns the index of a file name, or 0 if the name does not follow the
+   * naming scheme of this allocator.
+   */
+  private int getIndex(String name){
+    if (!name.startsWith(_prefix) || !name.endsWith(_suffix))
+      return 0;
+    try {
+      return Integer.parseInt(name.substring(_prefix.length(), name.length()-_suffix.length()));
+    } catch (NumberFormatException e) {
+      //not one of our files
+      return 0;
+    }
+  }
+
+  /**
+   * Prevents this allocator from returning a particular file name, even if
+   * that file does not exist in the directory.
+   */
+  public void reserve(String name){
+    int idx, cur;
+
+    idx = getIndex(name);
+    do{
+      cur = _counter.get();
+      if (cur>=idx)
+        return;
+    }while(!_counter.compareAndSet(cur, idx));
+  }
+
+  /**
+   * Allocates a new file name. The returned file exists and is empty.
+   *
+   * @return the absolute path of the new file
+   *
+   * @throws IOException if the file cannot be created
+   */
+  public String allocate() throws IOException {
+    File file;
+
+    while(true){
+      file = new File(_directory, _prefix+_counter.incrementAndGet()+_suffix);
+      try {
+        Files.createFile(file.toPath());
+        return file.getAbsolutePath();
+      } catch (FileAlreadyExistsException e) {
+        //created by someone else in the meantime: try the next one
+      }
+    }
+  }
+
+  /**
+   * Returns the directory managed by this allocator.
+   */
+  public File getDirectory(){
+    return _directory;
+  }
+}
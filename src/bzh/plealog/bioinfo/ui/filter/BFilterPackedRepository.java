@@ -0,0 +1,207 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+
+/**
+ * This is a BFilterRepository storing all the filters within a single pack
+ * file using a BFilterPackedStore. When the pack does not exist yet, it is
+ * created with the filter files contained in the directory. Filters are
+ * written to the pack in the background using a BFilterPersistenceQueue.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterPackedRepository extends AbstractBFilterRepository {
+  private File               _directory;
+  private BOperatorAccessors _filterModel;
+  private FilterSerializer   _serializer;
+  private BFilterPackedStore _store;
+  private BFilterPersistenceQueue _queue;
+
+  //maximum time to wait for pending filters when the repository is closed (ms)
+  private static final long CLOSE_TIMEOUT = 10000;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterPackedRepository");
+
+  /**
+   * Constructor.
+   * 
+   * @param directory the directory containing the pack file
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to import filter files
+   */
+  public BFilterPackedRepository(File directory, BOperatorAccessors fModel, FilterSerializer serializer){
+    super();
+    _directory = directory.getAbsoluteFile();
+    _filterModel = fModel;
+    _serializer = serializer;
+    _queue = new PackWriter();
+  }
+
+  /**
+   * Returns the pack used to store the filters. Returns null until loadAll()
+   * has been called.
+   */
+  public synchronized BFilterPackedStore getStore(){
+    return _store;
+  }
+
+  @Override
+  protected synchronized List<BFilterEntry> doLoadAll() throws IOException {
+    BFilterPackedStore store;
+    List<BFilterEntry> entries;
+    boolean            exists;
+
+    if (_store!=null){
+      _store.close();
+      _store = null;
+    }
+    exists = BFilterPackedStore.exists(_directory);
+    store = new BFilterPackedStore(_directory, _filterModel, _serializer);
+    entries = store.open();
+    if (!exists){
+      try {
+        entries = store.importDirectory(_directory);
+      } catch (IOException e) {
+        store.close();
+        throw e;
+      }
+    }
+    //a new filter must not shadow a sample
+    if (getSamples()!=null){
+      for(String name : getSamples().getNames()){
+        store.reserveFileName(name);
+      }
+    }
+    _store = store;
+    return entries;
+  }
+
+  private synchronized BFilterPackedStore getOpenedStore() throws IOException{
+    if (_store==null)
+      throw new IOException("repository not loaded: "+_directory);
+    return _store;
+  }
+
+  @Override
+  protected void doSave(BFilterEntry entry) throws IOException {
+    BFilterPackedStore store;
+
+    if (entry.getFilter()==null)
+      return;
+    store = getOpenedStore();
+    if (entry.getFileName()==null){
+      entry.setFileName(store.allocateFileName());
+    }
+    _queue.save(entry.getFilter(), entry.getFileName());
+  }
+
+  @Override
+  protected void doDelete(BFilterEntry entry) throws IOException {
+    if (entry.getFileName()!=null){
+      _queue.delete(entry.getFileName());
+    }
+  }
+
+  @Override
+  protected void doDeleteAll(Collection<BFilterEntry> entries) throws IOException {
+    ArrayList<String> fileNames;
+
+    fileNames = new ArrayList<String>(entries.size());
+    for(BFilterEntry entry : entries){
+      if (entry.getFileName()!=null)
+        fileNames.add(entry.getFileName());
+    }
+    _queue.deleteAll(fileNames);
+  }
+
+  /**
+   * Returns the queue used to write the filters to the pack.
+   */
+  public BFilterPersistenceQueue getPersistenceQueue(){
+    return _queue;
+  }
+
+  @Override
+  public boolean flush(long timeout) {
+    BFilterPackedStore store;
+
+    if (!_queue.flush(timeout))
+      return false;
+    synchronized(this){
+      store = _store;
+    }
+    if (store==null)
+      return true;
+    try {
+      store.sync();
+      return true;
+    } catch (IOException e) {
+      _logger.warn("Unable to sync filter pack: "+e);
+      return false;
+    }
+  }
+
+  @Override
+  public void close() {
+    if (!_queue.shutdown(CLOSE_TIMEOUT)){
+      _logger.warn("Some filters have not been written to the pack: "+_directory);
+    }
+    synchronized(this){
+      if (_store==null)
+        return;
+      try {
+        _store.close();
+      } catch (IOException e) {
+        _logger.warn("Unable to close filter pack: "+e);
+      }
+      _store = null;
+    }
+  }
+
+  /**
+   * Writes the requests of the queue to the pack.
+   */
+  private class PackWriter extends BFilterPersistenceQueue {
+    private PackWriter(){
+      super(null);
+    }
+    @Override
+    protected void write(BFilter filter, String fileName) throws Exception {
+      getOpenedStore().save(fileName, filter);
+    }
+    @Override
+    protected void remove(String fileName) throws Exception {
+      getOpenedStore().delete(fileName);
+    }
+    @Override
+    protected void removeAll(List<String> fileNames) throws Exception {
+      getOpenedStore().deleteAll(fileNames);
+    }
+  }
+}
@@ -0,0 +1,749 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterFactory;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+
+/**
+ * This class stores a whole filter repository within a single file. It is an
+ * alternative to the one-XML-file-per-filter layout that avoids listing and
+ * opening thousands of small files.
+ *
+ * The pack file is an append-only sequence of records: saving a filter
+ * appends its new version, deleting a filter appends a tombstone. An in-memory
+ * index maps each filter to the offset of its last record. Each record is
+ * protected by a CRC, so that a record partially written during a crash is
+ * discarded when the pack is opened again. When obsolete records take more
+ * room than the live ones, the pack is compacted in the background.
+ *
+ * Filters are identified by the name they would have in the per-file
+ * layout (filter1.xml, ...): BFilterEntry file names are then absolute
+ * paths located in the directory of the pack, and exportDirectory() writes
+ * the filters using exactly these names.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterPackedStore {
+
+  public static final String PACK_FILE_NAME = ".bft_pack";
+
+  private File               _packFile;
+  private File               _directory;
+  private BOperatorAccessors _filterModel;
+  private FilterSerializer   _serializer;
+  private BFilterFactory     _filterFactory;
+  private RandomAccessFile   _raf;
+  private FileChannel        _channel;
+  private LinkedHashMap<String, Slot> _index;
+  private long               _end;
+  private long               _liveBytes;
+  private long               _deadBytes;
+  private int                _counter;
+  private boolean            _compacting;
+
+  private static final int  MAGIC = 0x42465046;//BFPF
+  private static final int  VERSION = 1;
+  //size of the file header: magic and version
+  private static final int  FILE_HEADER = 8;
+  //size of the record header: body length and CRC
+  private static final int  RECORD_HEADER = 8;
+  private static final byte OP_PUT = 1;
+  private static final byte OP_DELETE = 2;
+  //compaction is not considered below that amount of obsolete data
+  private static final long COMPACT_MIN_BYTES = 256*1024;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterPackedStore");
+
+  /**
+   * Constructor.
+   *
+   * @param directory the directory containing the pack file
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to import and export XML files
+   */
+  public BFilterPackedStore(File directory, BOperatorAccessors fModel, FilterSerializer serializer){
+    _directory = directory.getAbsoluteFile();
+    _packFile = new File(_directory, PACK_FILE_NAME);
+    _filterModel = fModel;
+    _serializer = serializer;
+    _filterFactory = FilterSystemConfigurator.getFilterFactory();
+    _index = new LinkedHashMap<String, Slot>();
+  }
+
+  /**
+   * Figures out whether or not a pack file exists in a directory.
+   */
+  public static boolean exists(File directory){
+    return new File(directory, PACK_FILE_NAME).isFile();
+  }
+
+  /**
+   * Returns the pack file.
+   */
+  public File getPackFile(){
+    return _packFile;
+  }
+
+  /**
+   * Opens the pack, creating it if needed, and returns the filters it
+   * contains.
+   *
+   * @throws IOException if the pack cannot be opened
+   */
+  public synchronized List<BFilterEntry> open() throws IOException {
+    LinkedHashMap<String, byte[]> bodies;
+    ArrayList<BFilterEntry>       entries;
+    BFilter                       filter;
+
+    if (_channel!=null)
+      throw new IOException("pack already opened: "+_packFile);
+    bodies = new LinkedHashMap<String, byte[]>();
+    if (_packFile.isFile() && _packFile.length()!=0){
+      scan(bodies);
+    }
+    else{
+      writeEmptyPack(_packFile);
+      _end = FILE_HEADER;
+    }
+    _raf = new RandomAccessFile(_packFile, "rw");
+    _channel = _raf.getChannel();
+    //discard a record partially written during a crash
+    if (_channel.size()>_end){
+      _logger.warn("Discarding "+(_channel.size()-_end)+" bytes at the end of "+_packFile);
+      _channel.truncate(_end);
+    }
+    entries = new ArrayList<BFilterEntry>();
+    for(Map.Entry<String, byte[]> body : bodies.entrySet()){
+      try {
+        filter = _filterFactory.createFilter(_filterModel, decode(body.getValue()));
+        entries.add(new BFilterEntry(getFileName(body.getKey()), filter));
+      } catch (Exception e) {
+        _logger.warn("Unable to decode filter: "+body.getKey()+": "+e);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Reads the pack sequentially and fills in the index.
+   *
+   * @param bodies receives the encoded content of the live filters
+   */
+  private void scan(Map<String, byte[]> bodies) throws IOException {
+    DataInputStream dis;
+    CRC32           crc;
+    Slot            slot;
+    String          key;
+    byte[]          body;
+    long            pos, size;
+    int             len, sum;
+
+    crc = new CRC32();
+    size = _packFile.length();
+    try(FileInputStream fis = new FileInputStream(_packFile)){
+      dis = new DataInputStream(new BufferedInputStream(fis, 64*1024));
+      if (dis.readInt()!=MAGIC || dis.readInt()!=VERSION)
+        throw new IOException("not a filter pack: "+_packFile);
+      pos = FILE_HEADER;
+      while(true){
+        try {
+          len = dis.readInt();
+          sum = dis.readInt();
+          if (len<=0 || pos+RECORD_HEADER+len>size)
+            break;
+          body = new byte[len];
+          dis.readFully(body);
+        } catch (EOFException e) {
+          break;
+        }
+        crc.reset();
+        crc.update(body, 0, len);
+        if ((int) crc.getValue()!=sum)
+          break;
+        key = readKey(body);
+        slot = _index.remove(key);
+        if (slot!=null){
+          _liveBytes -= slot.length;
+          _deadBytes += slot.length;
+        }
+        if (body[0]==OP_PUT){
+          _index.put(key, new Slot(pos, RECORD_HEADER+len));
+          _liveBytes += RECORD_HEADER+len;
+          bodies.remove(key);
+          bodies.put(key, body);
+        }
+        else{
+          _deadBytes += RECORD_HEADER+len;
+          bodies.remove(key);
+        }
+        _counter = Math.max(_counter, getIndex(key));
+        pos += RECORD_HEADER+len;
+      }
+      _end = pos;
+    }
+  }
+
+  /**
+   * Returns the number of filters contained in the pack.
+   */
+  public synchronized int size(){
+    return _index.size();
+  }
+
+  /**
+   * Returns the total size of the records of the pack, including obsolete
+   * ones.
+   */
+  public synchronized long getLength(){
+    return _end;
+  }
+
+  /**
+   * Returns the size of the obsolete records of the pack.
+   */
+  public synchronized long getObsoleteLength(){
+    return _deadBytes;
+  }
+
+  /**
+   * Allocates the file name of a new filter.
+   */
+  public synchronized String allocateFileName(){
+    String fName;
+
+    do{
+      _counter++;
+      fName = BFilterEditorListener.FILTER_HEADER_NAME+_counter+BFilterLoader.FILTER_FILE_EXT;
+    }while(_index.containsKey(fName));
+    return getFileName(fName);
+  }
+
+  /**
+   * Prevents allocateFileName() from returning a particular file name.
+   */
+  public synchronized void reserveFileName(String fileName){
+    _counter = Math.max(_counter, getIndex(getKey(fileName)));
+  }
+
+  /**
+   * Saves a filter.
+   *
+   * @param fileName the file name of the filter
+   * @param filter the filter
+   *
+   * @throws IOException if the filter cannot be written
+   */
+  public void save(String fileName, BFilter filter) throws IOException{
+    append(OP_PUT, getKey(fileName), new BFilterIO(filter));
+  }
+
+  /**
+   * Deletes a filter. Does nothing if the filter does not exist.
+   *
+   * @param fileName the file name of the filter
+   *
+   * @throws IOException if the tombstone cannot be written
+   */
+  public void delete(String fileName) throws IOException{
+    String key;
+
+    key = getKey(fileName);
+    synchronized(this){
+      if (!_index.containsKey(key))
+        return;
+    }
+    append(OP_DELETE, key, null);
+  }
+
+  /**
+   * Deletes several filters with a single write. Filters that do not exist 
+   * are ignored.
+   *
+   * @param fileNames the file names of the filters
+   *
+   * @throws IOException if the tombstones cannot be written
+   */
+  public void deleteAll(Collection<String> fileNames) throws IOException{
+    ArrayList<String>     keys;
+    ArrayList<ByteBuffer> records;
+    ByteBuffer            buf;
+    String                key;
+    int                   i, total;
+
+    keys = new ArrayList<String>();
+    synchronized(this){
+      for(String fileName : fileNames){
+        key = getKey(fileName);
+        if (_index.containsKey(key))
+          keys.add(key);
+      }
+    }
+    if (keys.isEmpty())
+      return;
+    records = new ArrayList<ByteBuffer>(keys.size());
+    total = 0;
+    for(String k : keys){
+      buf = encode(OP_DELETE, k, null);
+      records.add(buf);
+      total += buf.remaining();
+    }
+    buf = ByteBuffer.allocate(total);
+    for(ByteBuffer record : records){
+      buf.put(record.duplicate());
+    }
+    buf.flip();
+    synchronized(this){
+      write(buf);
+      for(i=0;i<keys.size();i++){
+        update(OP_DELETE, keys.get(i), records.get(i).remaining());
+      }
+      checkCompaction();
+    }
+  }
+
+  private void append(byte op, String key, BFilterIO filter) throws IOException{
+    ByteBuffer buf;
+
+    //encoding is done outside the lock
+    buf = encode(op, key, filter);
+    synchronized(this){
+      write(buf);
+      update(op, key, buf.limit());
+      checkCompaction();
+    }
+  }
+
+  /**
+   * Encodes a record. Returns a buffer ready to be written.
+   */
+  private ByteBuffer encode(byte op, String key, BFilterIO filter) throws IOException{
+    ByteArrayOutputStream bos;
+    DataOutputStream      dos;
+    ByteBuffer            buf;
+    CRC32                 crc;
+    byte[]                body;
+    int                   len;
+
+    bos = new ByteArrayOutputStream(512);
+    dos = new DataOutputStream(bos);
+    dos.writeByte(op);
+    BFilterSnapshot.writeString(dos, key);
+    if (filter!=null){
+      BFilterSnapshot.writeFilter(dos, filter);
+    }
+    dos.flush();
+    body = bos.toByteArray();
+    len = body.length;
+    crc = new CRC32();
+    crc.update(body, 0, len);
+    buf = ByteBuffer.allocate(RECORD_HEADER+len);
+    buf.putInt(len).putInt((int) crc.getValue()).put(body);
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Writes some records at the end of the pack. Must be called while holding
+   * the lock of this store.
+   */
+  private void write(ByteBuffer buf) throws IOException{
+    if (_channel==null)
+      throw new IOException("pack not opened: "+_packFile);
+    while(buf.hasRemaining()){
+      _channel.write(buf, _end+buf.position());
+    }
+  }
+
+  /**
+   * Updates the index once a record has been written at the end of the pack.
+   * Must be called while holding the lock of this store.
+   * 
+   * @param length length of the record, header included
+   */
+  private void update(byte op, String key, int length){
+    Slot slot;
+
+    slot = _index.remove(key);
+    if (slot!=null){
+      _liveBytes -= slot.length;
+      _deadBytes += slot.length;
+    }
+    if (op==OP_PUT){
+      _index.put(key, new Slot(_end, length));
+      _liveBytes += length;
+    }
+    else{
+      _deadBytes += length;
+    }
+    _end += length;
+  }
+
+  private void checkCompaction(){
+    if (!_compacting && _deadBytes>COMPACT_MIN_BYTES && _deadBytes>_liveBytes){
+      _compacting = true;
+      startCompaction();
+    }
+  }
+
+  private void startCompaction(){
+    Thread thread;
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          doCompact();
+        } catch (IOException e) {
+          _logger.warn("Unable to compact filter pack: "+_packFile+": "+e);
+        }
+        finally{
+          synchronized(BFilterPackedStore.this){
+            _compacting = false;
+          }
+        }
+      }
+    }, "BFilterPackedStore");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Rewrites the pack so that it only contains the live records. The new
+   * pack replaces the old one atomically. Does nothing if a compaction is
+   * already running.
+   *
+   * @throws IOException if the pack cannot be rewritten. In such a case the
+   * old pack is left unchanged.
+   */
+  public void compact() throws IOException{
+    synchronized(this){
+      if (_compacting)
+        return;
+      _compacting = true;
+    }
+    try{
+      doCompact();
+    }
+    finally{
+      synchronized(this){
+        _compacting = false;
+      }
+    }
+  }
+
+  /**
+   * Rewrites the pack. The live records are copied without holding the lock
+   * of this store, so that filters can be saved in the meantime; then the
+   * records appended during the copy are added to the new pack and the files
+   * are swapped while holding the lock.
+   */
+  private void doCompact() throws IOException{
+    LinkedHashMap<String, Slot> snapshot, index, newIndex;
+    FileChannel                 channel, out;
+    File                        tmpFile;
+    Slot                        slot;
+    long                        pos, snapshotEnd, live;
+
+    synchronized(this){
+      if (_channel==null)
+        return;
+      channel = _channel;
+      snapshot = new LinkedHashMap<String, Slot>(_index);
+      snapshotEnd = _end;
+    }
+    tmpFile = File.createTempFile(PACK_FILE_NAME, ".tmp", _directory);
+    try{
+      writeEmptyPack(tmpFile);
+      try(RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")){
+        out = raf.getChannel();
+        //records located before snapshotEnd are never modified
+        pos = FILE_HEADER;
+        index = new LinkedHashMap<String, Slot>();
+        for(Map.Entry<String, Slot> entry : snapshot.entrySet()){
+          slot = entry.getValue();
+          copy(channel, slot.offset, slot.length, out, pos);
+          index.put(entry.getKey(), new Slot(pos, slot.length));
+          pos += slot.length;
+        }
+        out.force(true);
+        synchronized(this){
+          if (_channel!=channel)
+            throw new IOException("pack closed during compaction");
+          //records appended during the copy are kept as is
+          copy(_channel, snapshotEnd, _end-snapshotEnd, out, pos);
+          out.force(true);
+          newIndex = new LinkedHashMap<String, Slot>();
+          live = 0;
+          for(Map.Entry<String, Slot> entry : _index.entrySet()){
+            slot = entry.getValue();
+            if (slot.offset>=snapshotEnd){
+              slot = new Slot(pos+slot.offset-snapshotEnd, slot.length);
+            }
+            else{
+              //not modified since the snapshot
+              slot = index.get(entry.getKey());
+            }
+            newIndex.put(entry.getKey(), slot);
+            live += slot.length;
+          }
+          pos += _end-snapshotEnd;
+          _channel.close();
+          _raf.close();
+          try{
+            Files.move(tmpFile.toPath(), _packFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+          }
+          catch(IOException ex){
+            //the old pack and its index are still valid
+            reopen();
+            throw ex;
+          }
+          _index = newIndex;
+          _end = pos;
+          _liveBytes = live;
+          _deadBytes = _end-FILE_HEADER-live;
+          reopen();
+        }
+      }
+    }
+    catch(IOException ex){
+      tmpFile.delete();
+      throw ex;
+    }
+  }
+
+  private static void copy(FileChannel in, long offset, long length, FileChannel out, long pos) throws IOException{
+    long done = 0;
+
+    while(done<length){
+      done += in.transferTo(offset+done, length-done, out.position(pos+done));
+    }
+  }
+
+  private void reopen() throws IOException{
+    _raf = new RandomAccessFile(_packFile, "rw");
+    _channel = _raf.getChannel();
+  }
+
+  /**
+   * Forces the pack content to be written on the storage device.
+   */
+  public synchronized void sync() throws IOException{
+    if (_channel!=null)
+      _channel.force(false);
+  }
+
+  /**
+   * Closes the pack.
+   */
+  public synchronized void close() throws IOException{
+    if (_channel==null)
+      return;
+    _channel.force(true);
+    _channel.close();
+    _raf.close();
+    _channel = null;
+    _raf = null;
+  }
+
+  /**
+   * Imports all the filter files contained in a directory. A filter that
+   * already exists in the pack with the same name is replaced.
+   *
+   * @param directory a directory using the per-file layout
+   *
+   * @return the imported filters. They are located in the pack, so their
+   * file names may differ from the imported ones.
+   *
+   * @throws IOException if the pack cannot be written
+   */
+  public List<BFilterEntry> importDirectory(File directory) throws IOException{
+    BFilterLoader.LoadResult result;
+    ArrayList<BFilterEntry>  entries;
+    BFilter                  filter;
+    String                   fName;
+
+    result = new BFilterLoader(_filterModel, _serializer).load(directory);
+    entries = new ArrayList<BFilterEntry>();
+    for(BFilterEntry entry : result.getEntries()){
+      filter = entry.getFilter();
+      if (filter==null)
+        continue;
+      fName = getFileName(new File(entry.getFileName()).getName());
+      save(fName, filter);
+      synchronized(this){
+        _counter = Math.max(_counter, getIndex(getKey(fName)));
+      }
+      entries.add(new BFilterEntry(fName, filter));
+    }
+    return entries;
+  }
+
+  /**
+   * Exports all the filters to a directory using the per-file layout.
+   *
+   * @param directory the target directory
+   *
+   * @return the number of exported filters
+   *
+   * @throws IOException if a filter cannot be written
+   */
+  public int exportDirectory(File directory) throws IOException{
+    ArrayList<String> keys;
+    BFilterIO         filterIO;
+    BFilter           filter;
+    File              file, tmpFile;
+    int               n = 0;
+
+    synchronized(this){
+      keys = new ArrayList<String>(_index.keySet());
+    }
+    for(String key : keys){
+      filterIO = read(key);
+      if (filterIO==null)
+        continue;
+      file = new File(directory, key);
+      tmpFile = File.createTempFile(key, ".tmp", directory);
+      try {
+        filter = _filterFactory.createFilter(_filterModel, filterIO);
+        _serializer.save(filter, tmpFile);
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (Exception e) {
+        tmpFile.delete();
+        throw new IOException("unable to export "+key+": "+e);
+      }
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Reads the last version of a filter. Returns null if the filter does not
+   * exist.
+   */
+  private synchronized BFilterIO read(String key) throws IOException{
+    ByteBuffer buf;
+    Slot       slot;
+
+    slot = _index.get(key);
+    if (slot==null)
+      return null;
+    buf = ByteBuffer.allocate(slot.length);
+    while(buf.hasRemaining()){
+      if (_channel.read(buf, slot.offset+buf.position())<0)
+        throw new EOFException();
+    }
+    return decode(buf.array(), RECORD_HEADER);
+  }
+
+  private static BFilterIO decode(byte[] body) throws IOException{
+    return decode(body, 0);
+  }
+
+  private static BFilterIO decode(byte[] data, int offset) throws IOException{
+    DataInputStream dis;
+
+    dis = new DataInputStream(new ByteArrayInputStream(data, offset, data.length-offset));
+    dis.readByte();
+    BFilterSnapshot.readString(dis);
+    return BFilterSnapshot.readFilter(dis);
+  }
+
+  private static String readKey(byte[] body) throws IOException{
+    DataInputStream dis;
+
+    dis = new DataInputStream(new ByteArrayInputStream(body));
+    dis.readByte();
+    return BFilterSnapshot.readString(dis);
+  }
+
+  private static void writeEmptyPack(File file) throws IOException{
+    try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+    }
+  }
+
+  private String getFileName(String key){
+    return new File(_directory, key).getAbsolutePath();
+  }
+
+  private static String getKey(String fileName){
+    return new File(fileName).getName();
+  }
+
+  /**
+   * Returns the numerical part of a name such as filter12.xml, or 0.
+   */
+  private static int getIndex(String key){
+    String prefix, suffix;
+
+    prefix = BFilterEditorListener.FILTER_HEADER_NAME;
+    suffix = BFilterLoader.FILTER_FILE_EXT;
+    if (!key.startsWith(prefix) || !key.endsWith(suffix))
+      return 0;
+    try {
+      return Integer.parseInt(key.substring(prefix.length(), key.length()-suffix.length()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Location of a record within the pack.
+   */
+  private static class Slot {
+    private long offset;
+    private int  length;
+
+    private Slot(long offset, int length){
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+import com.plealog.genericapp.api.EZEnvironment;
+
+/**
+ * This class is a write-behind persistence queue for BFilter files. Save
+ * and delete requests are handled by a single background writer, so that
+ * the caller (usually the EDT) never waits for disk I/O.
+ *
+ * Requests are coalesced by file: if a file is saved several times before
+ * the writer handles it, only the last version is written. Each save goes
+ * to a temporary file which is then atomically renamed to the target file,
+ * so that a crash never leaves a partially written or missing filter.
+ *
+ * Sub-classes may store filters elsewhere by overriding write(), remove()
+ * and removeAll(): the requests are then handled the same way.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterPersistenceQueue implements Runnable {
+  private FilterSerializer            _serializer;
+  private LinkedHashMap<String, Request> _pending;
+  private Thread                      _writer;
+  private boolean                     _busy;
+  private boolean                     _running;
+  private long                        _writes;
+  private long                        _totalLatency;
+  private long                        _maxLatency;
+  private long                        _lastLatency;
+
+  private static final String TMP_FILE_EXT = ".tmp";
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterPersistenceQueue");
+
+  /**
+   * Constructor.
+   *
+   * @param serializer the serializer used to write filters
+   */
+  public BFilterPersistenceQueue(FilterSerializer serializer){
+    _serializer = serializer;
+    _pending = new LinkedHashMap<String, Request>();
+    _running = true;
+    _writer = new Thread(this, "BFilterPersistenceQueue");
+    _writer.setDaemon(true);
+    _writer.start();
+  }
+
+  /**
+   * Queues the save of a filter.
+   *
+   * @param filter the filter to save
+   * @param fileName the absolute path of the target file
+   */
+  public void save(BFilter filter, String fileName){
+    enqueue(fileName, new Request(filter));
+  }
+
+  /**
+   * Queues the deletion of a filter file.
+   *
+   * @param fileName the absolute path of the file to delete
+   */
+  public void delete(String fileName){
+    enqueue(fileName, new Request(null));
+  }
+
+  /**
+   * Queues the deletion of several filter files at once.
+   *
+   * @param fileNames the absolute path of the files to delete
+   */
+  public synchronized void deleteAll(Collection<String> fileNames){
+    if (!_running)
+      throw new IllegalStateException("persistence queue is shut down");
+    for(String fileName : fileNames){
+      _pending.remove(fileName);
+      _pending.put(fileName, new Request(null));
+    }
+    notifyAll();
+  }
+
+  private synchronized void enqueue(String fileName, Request request){
+    if (!_running)
+      throw new IllegalStateException("persistence queue is shut down");
+    //remove first, so that the request goes at the end of the queue
+    _pending.remove(fileName);
+    _pending.put(fileName, request);
+    notifyAll();
+  }
+
+  /**
+   * Figures out whether a request is pending for a particular file.
+   */
+  public synchronized boolean isPending(String fileName){
+    return _pending.containsKey(fileName);
+  }
+
+  /**
+   * Waits until all pending requests have been written.
+   *
+   * @param timeout maximum time to wait, in milliseconds
+   *
+   * @return true if the queue is empty, false if the timeout elapsed
+   */
+  public synchronized boolean flush(long timeout){
+    long end, remaining;
+
+    end = System.currentTimeMillis()+timeout;
+    while(!_pending.isEmpty() || _busy){
+      remaining = end-System.currentTimeMillis();
+      if (remaining<=0)
+        return false;
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Flushes the queue then stops the writer.
+   *
+   * @param timeout maximum time to wait for the flush, in milliseconds
+   *
+   * @return true if all pending requests have been written
+   */
+  public boolean shutdown(long timeout){
+    boolean flushed;
+
+    flushed = flush(timeout);
+    synchronized(this){
+      _running = false;
+      notifyAll();
+    }
+    return flushed;
+  }
+
+  /**
+   * Returns the number of pending requests.
+   */
+  public synchronized int getDepth(){
+    return _pending.size() + (_busy ? 1 : 0);
+  }
+
+  /**
+   * Returns the number of requests handled so far.
+   */
+  public synchronized long getWrites(){
+    return _writes;
+  }
+
+  /**
+   * Returns the duration of the last write, in milliseconds.
+   */
+  public synchronized long getLastWriteLatency(){
+    return _lastLatency;
+  }
+
+  /**
+   * Returns the average duration of a write, in milliseconds.
+   */
+  public synchronized double getAverageWriteLatency(){
+    return _writes==0 ? 0d : (double) _totalLatency / (double) _writes;
+  }
+
+  /**
+   * Returns the longest duration of a write, in milliseconds.
+   */
+  public synchronized long getMaxWriteLatency(){
+    return _maxLatency;
+  }
+
+  @Override
+  public void run() {
+    Iterator<Map.Entry<String, Request>> iter;
+    Map.Entry<String, Request>           entry;
+    ArrayList<String>                    deleted;
+    String                               fileName;
+    Request                              request;
+    long                                 time;
+    int                                  n;
+
+    deleted = new ArrayList<String>();
+    while(true){
+      synchronized(this){
+        _busy = false;
+        notifyAll();
+        while(_pending.isEmpty() && _running){
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (_pending.isEmpty())
+          return;
+        iter = _pending.entrySet().iterator();
+        entry = iter.next();
+        iter.remove();
+        fileName = entry.getKey();
+        request = entry.getValue();
+        deleted.clear();
+        if (request.filter==null){
+          //consecutive deletions are handled at once
+          deleted.add(fileName);
+          while(iter.hasNext()){
+            entry = iter.next();
+            if (entry.getValue().filter!=null)
+              break;
+            iter.remove();
+            deleted.add(entry.getKey());
+          }
+        }
+        _busy = true;
+      }
+      time = System.currentTimeMillis();
+      if (request.filter==null)
+        doDelete(deleted);
+      else
+        doSave(request.filter, fileName);
+      time = System.currentTimeMillis()-time;
+      n = Math.max(1, deleted.size());
+      synchronized(this){
+        _writes += n;
+        _lastLatency = time;
+        _totalLatency += time;
+        _maxLatency = Math.max(_maxLatency, time);
+      }
+    }
+  }
+
+  private void doSave(BFilter filter, String fileName){
+    try {
+      write(filter, fileName);
+    } catch (Exception ex) {
+      final String msg = FilterMessages.getString("DDFileTypes.filter.err.msg1");
+      _logger.warn(msg+": "+fileName+": "+ex);
+      SwingUtilities.invokeLater(new Runnable(){
+        public void run(){
+          EZEnvironment.displayErrorMessage(EZEnvironment.getParentFrame(), msg+".");
+        }
+      });
+    }
+  }
+
+  private void doDelete(List<String> fileNames){
+    try {
+      if (fileNames.size()==1)
+        remove(fileNames.get(0));
+      else
+        removeAll(fileNames);
+    } catch (Exception ex) {
+      _logger.info("Unable to delete filter: "+fileNames+": "+ex);
+    }
+  }
+
+  /**
+   * Writes a filter. Called by the writer thread. This default implementation
+   * writes an XML file using the serializer of this queue.
+   *
+   * @param filter the filter to save
+   * @param fileName the absolute path of the target file
+   */
+  protected void write(BFilter filter, String fileName) throws Exception {
+    File file, tmpFile = null;
+
+    file = new File(fileName);
+    if (_serializer==null)
+      throw new Exception("No serializer defined.");
+    try {
+      tmpFile = File.createTempFile(file.getName(), TMP_FILE_EXT, file.getAbsoluteFile().getParentFile());
+      _serializer.save(filter, tmpFile);
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception ex) {
+      if (tmpFile!=null)
+        tmpFile.delete();
+      throw ex;
+    }
+  }
+
+  /**
+   * Removes a filter. Called by the writer thread. This default implementation
+   * deletes the file.
+   *
+   * @param fileName the absolute path of the file to delete
+   */
+  protected void remove(String fileName) throws Exception {
+    Files.deleteIfExists(new File(fileName).toPath());
+  }
+
+  /**
+   * Removes several filters. Called by the writer thread. This default 
+   * implementation calls remove() for each filter.
+   *
+   * @param fileNames the absolute path of the files to delete
+   */
+  protected void removeAll(List<String> fileNames) throws Exception {
+    Exception error = null;
+
+    for(String fileName : fileNames){
+      try {
+        remove(fileName);
+      } catch (Exception ex) {
+        if (error==null)
+          error = ex;
+      }
+    }
+    if (error!=null)
+      throw error;
+  }
+
+  private static class Request {
+    private BFilter filter;//null means delete
+
+    private Request(BFilter filter){
+      this.filter = filter;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This interface defines a storage of BFilters. Implementations are available
+ * to keep filters in memory, as one XML file per filter within a directory, or
+ * within a single pack file.
+ * 
+ * Listeners registered on a repository are notified with BFilterEditEvent
+ * once a filter has been added, edited or deleted in the repository.
+ * 
+ * @author Patrick G. Durand
+ */
+public interface BFilterRepository extends BFilterManager {
+
+	/**
+	 * Loads all the filters of the repository.
+	 * 
+	 * @return the filters. Never returns null.
+	 * 
+	 * @throws IOException if the repository cannot be read
+	 */
+	public List<BFilterEntry> loadAll() throws IOException;
+	
+	/**
+	 * Saves a set of filters. See save().
+	 */
+	public void saveAll(Collection<BFilterEntry> entries) throws IOException;
+
+	/**
+	 * Saves a filter. If the entry does not have a file name yet, the
+	 * repository assigns one and the filter is added to the repository.
+	 * 
+	 * @throws IOException if the filter cannot be saved
+	 */
+	public void save(BFilterEntry entry) throws IOException;
+
+	/**
+	 * Deletes a filter from the repository.
+	 * 
+	 * @throws IOException if the filter cannot be deleted
+	 */
+	public void delete(BFilterEntry entry) throws IOException;
+
+	/**
+	 * Deletes a set of filters from the repository. Listeners are notified
+	 * once with a BFilterEditEvent of type FILTERS_DELETED.
+	 * 
+	 * @throws IOException if some filters cannot be deleted. The other ones
+	 * are deleted anyway.
+	 */
+	public void deleteAll(Collection<BFilterEntry> entries) throws IOException;
+
+	/**
+	 * Returns all the filters of the repository.
+	 */
+	public List<BFilterEntry> getEntries();
+
+	/**
+	 * Waits until the changes made on the repository are written.
+	 * 
+	 * @param timeout maximum time to wait, in milliseconds
+	 * 
+	 * @return true if all changes have been written
+	 */
+	public boolean flush(long timeout);
+
+	/**
+	 * Releases the resources used by the repository. Call flush() before to
+	 * wait for pending changes.
+	 */
+	public void close();
+}
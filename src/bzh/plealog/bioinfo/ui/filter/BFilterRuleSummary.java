@@ -0,0 +1,152 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import bzh.plealog.bioinfo.api.filter.BDataAccessors;
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+
+/**
+ * This class contains the rules of a BFilter ready to be displayed: one line
+ * per rule, each line being a sequence of text segments with a style (plain,
+ * bold or italic).
+ *
+ * A summary is computed once from the rules of the BFilter, using the same
+ * operator and value labels as the rule editor. It is cached by BFilterEntry
+ * until the BFilter is replaced.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterRuleSummary {
+  private String[][] _texts;
+  private int[][]    _styles;
+  private String     _txt;
+
+  public static final int PLAIN  = 0;
+  public static final int BOLD   = 1;
+  public static final int ITALIC = 2;
+
+  private static final String AND_LABEL = "and";
+  private static final String OR_LABEL  = "or";
+
+  private BFilterRuleSummary(){}
+
+  /**
+   * Creates the summary of a BFilter.
+   */
+  public static BFilterRuleSummary create(BFilter filter){
+    BFilterRuleSummary summary;
+    ArrayList<BRule>   rules;
+    BDataAccessors     fModel;
+    StringBuilder      txt;
+    Iterator<BRule>    iter;
+    String             connector;
+    int                i;
+
+    fModel = FilterSystemConfigurator.getFilterableModel();
+    rules = new ArrayList<BRule>();
+    iter = filter.getRules();
+    while(iter.hasNext()){
+      rules.add(iter.next());
+    }
+    connector = filter.getExclusive() ? AND_LABEL : OR_LABEL;
+    summary = new BFilterRuleSummary();
+    summary._texts = new String[rules.size()][];
+    summary._styles = new int[rules.size()][];
+    txt = new StringBuilder();
+    for(i=0;i<rules.size();i++){
+      if (i!=0)
+        txt.append(' ');
+      summary.createLine(i, rules.get(i), fModel, i!=0 ? connector : null, txt);
+    }
+    summary._txt = txt.toString();
+    return summary;
+  }
+
+  /**
+   * Creates the styled segments of a rule.
+   */
+  private void createLine(int line, BRule rule, BDataAccessors fModel, 
+      String connector, StringBuilder txt){
+    ArrayList<String>  texts;
+    ArrayList<Integer> styles;
+    String             ope;
+    Object             value;
+    int                i;
+
+    texts = new ArrayList<String>();
+    styles = new ArrayList<Integer>();
+    if (connector!=null){
+      addSegment(texts, styles, txt, connector, ITALIC);
+      addSegment(texts, styles, txt, " ", PLAIN);
+    }
+    addSegment(texts, styles, txt, rule.getAccessor(), BOLD);
+    ope = BAccessorCatalog.getOperatorText(fModel, rule.getOperator());
+    addSegment(texts, styles, txt, " ", PLAIN);
+    addSegment(texts, styles, txt, ope!=null ? ope : rule.getOperator(), ITALIC);
+    value = rule.getValue();
+    if (value!=null){
+      addSegment(texts, styles, txt, " '"+BRuleEditor.getValueText(value)+"'", PLAIN);
+    }
+    _texts[line] = texts.toArray(new String[texts.size()]);
+    _styles[line] = new int[styles.size()];
+    for(i=0;i<_styles[line].length;i++){
+      _styles[line][i] = styles.get(i);
+    }
+  }
+
+  private static void addSegment(ArrayList<String> texts, ArrayList<Integer> styles, 
+      StringBuilder txt, String text, int style){
+    if (text==null || text.isEmpty())
+      return;
+    texts.add(text);
+    styles.add(style);
+    txt.append(text);
+  }
+
+  /**
+   * Returns the number of lines, i.e. the number of rules.
+   */
+  public int getLineCount(){
+    return _texts.length;
+  }
+
+  /**
+   * Returns the text segments of a line.
+   */
+  public String[] getTexts(int line){
+    return _texts[line];
+  }
+
+  /**
+   * Returns the style of the text segments of a line: PLAIN, BOLD or ITALIC.
+   */
+  public int[] getStyles(int line){
+    return _styles[line];
+  }
+
+  /**
+   * Returns the rules as plain text.
+   */
+  public String toString(){
+    return _txt;
+  }
+}
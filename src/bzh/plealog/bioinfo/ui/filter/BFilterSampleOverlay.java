@@ -0,0 +1,253 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+/**
+ * This class gives a read-only access to the sample filters bundled within a
+ * zip file, without extracting them. When the zip is a plain file, it is read
+ * through a zip FileSystem; when it is located within the application jar,
+ * its entries are read once into memory (the sample file is small).
+ * 
+ * Samples are exposed as lazy BFilterEntry objects located in a repository
+ * directory: the file does not exist until the sample is saved, so that
+ * editing a sample copies it into the repository.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterSampleOverlay implements BFilterEntry.LazyLoader {
+  private BOperatorAccessors  _filterModel;
+  private FilterSerializer    _serializer;
+  private FileSystem          _zipFS;
+  private Map<String, byte[]> _contents;
+  private List<String>        _names;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterSampleOverlay");
+
+  private BFilterSampleOverlay(BOperatorAccessors fModel, FilterSerializer serializer){
+    _filterModel = fModel;
+    _serializer = serializer;
+    _names = new ArrayList<String>();
+  }
+
+  /**
+   * Opens the samples contained in a zip file.
+   * 
+   * @param zipFile the zip file
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to read the filters
+   * 
+   * @throws IOException if the zip file cannot be read
+   */
+  public static BFilterSampleOverlay open(File zipFile, BOperatorAccessors fModel, 
+      FilterSerializer serializer) throws IOException {
+    BFilterSampleOverlay overlay;
+
+    overlay = new BFilterSampleOverlay(fModel, serializer);
+    overlay._zipFS = FileSystems.newFileSystem(zipFile.toPath(), (ClassLoader) null);
+    for(Path root : overlay._zipFS.getRootDirectories()){
+      try(DirectoryStream<Path> stream = Files.newDirectoryStream(root)){
+        for(Path path : stream){
+          if (isSample(path.getFileName().toString()) && Files.isRegularFile(path))
+            overlay._names.add(path.getFileName().toString());
+        }
+      }
+    }
+    Collections.sort(overlay._names);
+    return overlay;
+  }
+
+  /**
+   * Opens the samples contained in a zip stream. The samples are read in
+   * memory. This method does not close the stream.
+   * 
+   * @param in the zip stream
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to read the filters
+   * 
+   * @throws IOException if the zip stream cannot be read
+   */
+  public static BFilterSampleOverlay open(InputStream in, BOperatorAccessors fModel, 
+      FilterSerializer serializer) throws IOException {
+    BFilterSampleOverlay  overlay;
+    ZipInputStream        zis;
+    ZipEntry              entry;
+    ByteArrayOutputStream bos;
+    byte[]                buf;
+    int                   n;
+
+    overlay = new BFilterSampleOverlay(fModel, serializer);
+    overlay._contents = new HashMap<String, byte[]>();
+    zis = new ZipInputStream(in);
+    buf = new byte[8*1024];
+    while((entry=zis.getNextEntry())!=null){
+      //only samples located at the root of the zip are considered
+      if (entry.isDirectory() || entry.getName().indexOf('/')!=-1 || !isSample(entry.getName()))
+        continue;
+      bos = new ByteArrayOutputStream();
+      while((n=zis.read(buf))!=-1){
+        bos.write(buf, 0, n);
+      }
+      overlay._contents.put(entry.getName(), bos.toByteArray());
+      overlay._names.add(entry.getName());
+    }
+    Collections.sort(overlay._names);
+    return overlay;
+  }
+
+  /**
+   * Opens the samples contained in a zip resource. The zip is accessed
+   * through a zip FileSystem if the resource is a plain file, otherwise its
+   * content is read in memory.
+   * 
+   * @param resource the location of the zip resource
+   * @param fModel the data model describing the filters
+   * @param serializer the serializer used to read the filters
+   * 
+   * @throws IOException if the zip resource cannot be read
+   */
+  public static BFilterSampleOverlay open(URL resource, BOperatorAccessors fModel, 
+      FilterSerializer serializer) throws IOException {
+    if ("file".equals(resource.getProtocol())){
+      try {
+        return open(Paths.get(resource.toURI()).toFile(), fModel, serializer);
+      } catch (URISyntaxException e) {
+        //use the stream
+      }
+    }
+    try(InputStream in = resource.openStream()){
+      return open(in, fModel, serializer);
+    }
+  }
+
+  private static boolean isSample(String name){
+    //also discard meta-data files such as the ones created by Mac OS X
+    return name.toLowerCase().endsWith(BFilterLoader.FILTER_FILE_EXT) && !name.startsWith(".");
+  }
+
+  /**
+   * Returns the file names of the samples, sorted by name.
+   */
+  public List<String> getNames(){
+    return Collections.unmodifiableList(_names);
+  }
+
+  /**
+   * Figures out whether or not a file name is the one of a sample.
+   */
+  public boolean contains(String name){
+    return Collections.binarySearch(_names, name)>=0;
+  }
+
+  private synchronized byte[] readSample(String name) throws IOException {
+    byte[] data;
+
+    if (_contents!=null){
+      data = _contents.get(name);
+      if (data==null)
+        throw new IOException("no such sample: "+name);
+      return data;
+    }
+    if (_zipFS==null)
+      throw new IOException("samples closed");
+    return Files.readAllBytes(_zipFS.getPath(name));
+  }
+
+  /**
+   * Creates a lazy entry for a sample. Only the header of the sample is read.
+   * 
+   * @param directory the directory where to store the sample when it is saved
+   * @param name the file name of the sample
+   * 
+   * @throws IOException if the sample cannot be read
+   */
+  public BFilterEntry createEntry(File directory, String name) throws IOException {
+    BFilterHeader header;
+
+    try(InputStream in = new ByteArrayInputStream(readSample(name))){
+      header = BFilterHeader.scan(in);
+    }
+    return new BFilterEntry(new File(directory, name).getAbsolutePath(), header, this);
+  }
+
+  /**
+   * Implementation of BFilterEntry.LazyLoader interface.
+   */
+  @Override
+  public BFilter loadFilter(BFilterEntry entry) {
+    String name;
+    File   tmpFile = null;
+
+    name = new File(entry.getFileName()).getName();
+    try {
+      //FilterSerializer only reads files
+      tmpFile = File.createTempFile("bft_sample", BFilterLoader.FILTER_FILE_EXT);
+      Files.write(tmpFile.toPath(), readSample(name));
+      return _serializer.load(_filterModel, tmpFile);
+    } catch (Exception e) {
+      _logger.warn(new MessageFormat(FilterMessages.getString("FilterManagerUI.err.4")).format(
+          new Object[]{name, e.toString()}));
+      return null;
+    }
+    finally{
+      if (tmpFile!=null)
+        tmpFile.delete();
+    }
+  }
+
+  /**
+   * Releases the resources used by this overlay.
+   */
+  public synchronized void close(){
+    if (_zipFS==null)
+      return;
+    try {
+      _zipFS.close();
+    } catch (IOException e) {
+      //not a problem at this stage
+    }
+    _zipFS = null;
+  }
+}
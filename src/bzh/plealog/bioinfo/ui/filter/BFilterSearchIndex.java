@@ -0,0 +1,563 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import javax.swing.RowFilter;
+
+/**
+ * This class is a full text index of BFilterEntry objects. It indexes the
+ * name, the description and the rules (accessor names, operators and values)
+ * of the filters, so that a search box can narrow the rows of a BFilterTable
+ * without scanning all the filters at each keystroke.
+ *
+ * The text of each filter is lowercased then indexed by trigram; a search
+ * term of three characters or more only checks the filters containing all
+ * the trigrams of that term. Shorter terms are matched against the beginning
+ * of the words of the filters.
+ *
+ * The index is updated incrementally: register it as a BFilterEditListener
+ * or call update() and remove() when entries are modified. An entry can be
+ * part of a single index at a time.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterSearchIndex implements BFilterEditListener {
+  //entries and their lowercase text, by identifier; null when removed.
+  //Identifiers increase, so posting lists are sorted.
+  private ArrayList<BFilterEntry>    _entries;
+  private ArrayList<String>          _docs;
+  private TrigramMap                 _trigrams;
+  private HashMap<String, Postings>  _words;
+  private TreeSet<String>            _sortedWords;
+  private int                        _size;
+  private int                        _removed;
+
+  private static final int    MIN_TRIGRAM_TERM = 3;
+  //removed entries are purged from the posting lists beyond that number
+  private static final int    MIN_COMPACT = 1024;
+  private static final char   FIELD_SEPARATOR = '\n';
+
+  /**
+   * Constructor.
+   */
+  public BFilterSearchIndex(){
+    clear();
+  }
+
+  private void clear(){
+    _entries = new ArrayList<BFilterEntry>();
+    _docs = new ArrayList<String>();
+    _trigrams = new TrigramMap();
+    _words = new HashMap<String, Postings>();
+    _sortedWords = new TreeSet<String>();
+    _size = 0;
+    _removed = 0;
+  }
+
+  /**
+   * Returns the text indexed for an entry. In lazy mode, this method reads
+   * the BFilter of the entry without keeping it, see 
+   * BFilterEntry.getRuleSummary().
+   */
+  public static String getText(BFilterEntry entry){
+    BFilterRuleSummary summary;
+    StringBuilder      buf;
+
+    buf = new StringBuilder();
+    if (entry.getName()!=null)
+      buf.append(entry.getName());
+    buf.append(FIELD_SEPARATOR);
+    if (entry.getDescription()!=null)
+      buf.append(entry.getDescription());
+    buf.append(FIELD_SEPARATOR);
+    summary = entry.getRuleSummary();
+    if (summary!=null)
+      buf.append(summary.toString());
+    return buf.toString().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Returns the identifier of an entry, or -1 if it is not part of this index.
+   */
+  private int getId(BFilterEntry entry){
+    int id;
+
+    id = entry.getSearchId();
+    if (id<0 || id>=_entries.size() || _entries.get(id)!=entry)
+      return -1;
+    return id;
+  }
+
+  /**
+   * Adds several entries to the index.
+   */
+  public void addAll(List<BFilterEntry> entries){
+    for(BFilterEntry entry : entries){
+      update(entry);
+    }
+  }
+
+  /**
+   * Adds an entry to the index or updates it if its text has changed.
+   */
+  public void update(BFilterEntry entry){
+    String text;
+    int    id;
+
+    //computed out of the lock since it may load the BFilter
+    text = getText(entry);
+    synchronized(this){
+      id = getId(entry);
+      if (id!=-1){
+        if (text.equals(_docs.get(id)))
+          return;
+        removeId(id);
+      }
+      add(entry, text);
+    }
+  }
+
+  private void add(BFilterEntry entry, String text){
+    Postings postings;
+    String   word;
+    long     key;
+    int      id, i, start, len;
+    char     ch;
+
+    id = _entries.size();
+    _entries.add(entry);
+    _docs.add(text);
+    entry.setSearchId(id);
+    _size++;
+    len = text.length();
+    key = 0;
+    start = -1;
+    for(i=0;i<=len;i++){
+      ch = i<len ? text.charAt(i) : FIELD_SEPARATOR;
+      //trigrams do not span several fields
+      if (ch==FIELD_SEPARATOR){
+        key = 0;
+      }
+      else{
+        key = ((key<<16) | ch) & 0xFFFFFFFFFFFFL;
+        if ((key>>>32)!=0)
+          _trigrams.add(key, id);
+      }
+      if (Character.isLetterOrDigit(ch)){
+        if (start==-1)
+          start = i;
+      }
+      else if (start!=-1){
+        word = text.substring(start, i);
+        postings = _words.get(word);
+        if (postings==null){
+          postings = new Postings();
+          _words.put(word, postings);
+          _sortedWords.add(word);
+        }
+        postings.add(id);
+        start = -1;
+      }
+    }
+  }
+
+  /**
+   * Returns the key of the trigram starting at a particular position.
+   */
+  private static long getTrigram(String str, int pos){
+    return ((long) str.charAt(pos)<<32) | ((long) str.charAt(pos+1)<<16) | str.charAt(pos+2);
+  }
+
+  /**
+   * Removes an entry from the index.
+   */
+  public synchronized void remove(BFilterEntry entry){
+    int id;
+
+    id = getId(entry);
+    if (id!=-1)
+      removeId(id);
+  }
+
+  /**
+   * Removes several entries from the index.
+   */
+  public synchronized void removeAll(Collection<BFilterEntry> entries){
+    int id;
+
+    for(BFilterEntry entry : entries){
+      id = getId(entry);
+      if (id!=-1)
+        removeId(id);
+    }
+  }
+
+  private void removeId(int id){
+    //posting lists are purged lazily
+    _entries.get(id).setSearchId(-1);
+    _entries.set(id, null);
+    _docs.set(id, null);
+    _size--;
+    _removed++;
+    if (_removed>MIN_COMPACT && _removed>_size)
+      compact();
+  }
+
+  /**
+   * Rebuilds the index without the removed entries.
+   */
+  private void compact(){
+    ArrayList<BFilterEntry> entries;
+    ArrayList<String>       docs;
+    int                     i;
+
+    entries = _entries;
+    docs = _docs;
+    clear();
+    for(i=0;i<entries.size();i++){
+      if (entries.get(i)!=null)
+        add(entries.get(i), docs.get(i));
+    }
+  }
+
+  /**
+   * Returns the number of entries contained in this index.
+   */
+  public synchronized int size(){
+    return _size;
+  }
+
+  /**
+   * Figures out whether an entry is indexed.
+   */
+  public synchronized boolean contains(BFilterEntry entry){
+    return getId(entry)!=-1;
+  }
+
+  /**
+   * Splits a query into lowercase terms.
+   */
+  private static String[] getTerms(String query){
+    String str;
+
+    str = query.trim().toLowerCase(Locale.ROOT);
+    if (str.isEmpty())
+      return new String[0];
+    return str.split("\\s+");
+  }
+
+  /**
+   * Searches for the entries containing all the terms of a query.
+   *
+   * @param query terms separated by white spaces
+   *
+   * @return the identifiers of the matching entries, or null if the query
+   * has no terms, i.e. all entries match.
+   */
+  public synchronized BitSet search(String query){
+    return search(getTerms(query));
+  }
+
+  private BitSet search(String[] terms){
+    BitSet result, set;
+
+    if (terms.length==0)
+      return null;
+    result = null;
+    for(String term : terms){
+      if (term.length()>=MIN_TRIGRAM_TERM)
+        set = searchTrigrams(term);
+      else
+        set = searchWords(term);
+      if (result==null)
+        result = set;
+      else
+        result.and(set);
+      if (result.isEmpty())
+        break;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the entries containing a term of at least three characters.
+   */
+  private BitSet searchTrigrams(String term){
+    BitSet     result;
+    Postings[] lists;
+    Postings   postings;
+    int[]      candidates;
+    String     doc;
+    int        i, n;
+
+    result = new BitSet();
+    n = term.length()-MIN_TRIGRAM_TERM+1;
+    lists = new Postings[n];
+    for(i=0;i<n;i++){
+      postings = _trigrams.get(getTrigram(term, i));
+      if (postings==null)
+        return result;
+      lists[i] = postings;
+    }
+    //entries having the term as a word need no check
+    postings = _words.get(term);
+    if (postings!=null){
+      for(i=0;i<postings.size;i++){
+        if (_docs.get(postings.ids[i])!=null)
+          result.set(postings.ids[i]);
+      }
+    }
+    //intersect from the shortest list
+    Arrays.sort(lists);
+    if (postings!=null && postings.size==lists[0].size)
+      return result;//all candidates have the term as a word
+    candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+    n = candidates.length;
+    for(i=1;i<lists.length && n!=0;i++){
+      n = lists[i].retain(candidates, n);
+    }
+    for(i=0;i<n;i++){
+      if (result.get(candidates[i]))
+        continue;
+      doc = _docs.get(candidates[i]);
+      //a single trigram needs no check
+      if (doc!=null && (term.length()==MIN_TRIGRAM_TERM || doc.contains(term)))
+        result.set(candidates[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the entries containing a word starting with a short term.
+   */
+  private BitSet searchWords(String term){
+    BitSet   result;
+    Postings postings;
+    int      i;
+
+    result = new BitSet();
+    for(String word : _sortedWords.subSet(term, term+Character.MAX_VALUE)){
+      postings = _words.get(word);
+      for(i=0;i<postings.size;i++){
+        if (_docs.get(postings.ids[i])!=null)
+          result.set(postings.ids[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Figures out whether an entry matches the terms of a query without using
+   * the index.
+   */
+  private static boolean matches(BFilterEntry entry, String[] terms){
+    String text;
+    int    start;
+
+    text = getText(entry);
+    for(String term : terms){
+      if (term.length()>=MIN_TRIGRAM_TERM){
+        if (!text.contains(term))
+          return false;
+        continue;
+      }
+      start = text.indexOf(term);
+      while(start!=-1){
+        if (start==0 || !Character.isLetterOrDigit(text.charAt(start-1)))
+          break;
+        start = text.indexOf(term, start+1);
+      }
+      if (start==-1)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Creates a RowFilter keeping the rows of a BFilterTableModel that match a
+   * query. The query is evaluated once using the index, when this method is
+   * called. Entries added or modified later are checked directly.
+   *
+   * @return a row filter or null if the query has no terms
+   */
+  public RowFilter<BFilterTableModel, Integer> createRowFilter(String query){
+    final BitSet   result;
+    final String[] terms;
+    final int      maxId;
+
+    terms = getTerms(query);
+    if (terms.length==0)
+      return null;
+    synchronized(this){
+      result = search(terms);
+      maxId = _entries.size();
+    }
+    return new RowFilter<BFilterTableModel, Integer>(){
+      public boolean include(Entry<? extends BFilterTableModel, ? extends Integer> entry){
+        BFilterEntry fEntry;
+        int          id;
+
+        fEntry = entry.getModel().getEntry(entry.getIdentifier().intValue());
+        synchronized(BFilterSearchIndex.this){
+          id = getId(fEntry);
+        }
+        if (id==-1 || id>=maxId)//not indexed when the query was evaluated
+          return matches(fEntry, terms);
+        return result.get(id);
+      }
+    };
+  }
+
+  @Override
+  public void filterEdited(BFilterEditEvent event) {
+    BFilterEntry entry;
+
+    if (event.getType()==BFilterEditEvent.FILTERS_DELETED){
+      removeAll(event.getEntries());
+      return;
+    }
+    entry = (BFilterEntry) event.getSource();
+    switch(event.getType()){
+    case BFilterEditEvent.FILTER_ADDED:
+    case BFilterEditEvent.FILTER_COPIED:
+    case BFilterEditEvent.FILTER_EDITED:
+      update(entry);
+      break;
+    case BFilterEditEvent.FILTER_DELETED:
+      remove(entry);
+      break;
+    }
+  }
+
+  /**
+   * A sorted list of entry identifiers.
+   */
+  private static class Postings implements Comparable<Postings>{
+    private int[] ids = new int[2];
+    private int   size;
+
+    private void add(int id){
+      //an entry adds the same key several times in a row
+      if (size!=0 && ids[size-1]==id)
+        return;
+      if (size==ids.length)
+        ids = Arrays.copyOf(ids, size*2);
+      ids[size++] = id;
+    }
+
+    /**
+     * Keeps the candidates contained in this list.
+     *
+     * @param candidates sorted identifiers; modified in place
+     * @param n number of candidates
+     *
+     * @return the number of candidates kept
+     */
+    private int retain(int[] candidates, int n){
+      int i, j, k;
+
+      i = j = k = 0;
+      while(i<n && j<size){
+        if (candidates[i]<ids[j]){
+          i++;
+        }
+        else if (candidates[i]>ids[j]){
+          j++;
+        }
+        else{
+          candidates[k++] = candidates[i];
+          i++;
+          j++;
+        }
+      }
+      return k;
+    }
+
+    @Override
+    public int compareTo(Postings o) {
+      return size<o.size ? -1 : (size==o.size ? 0 : 1);
+    }
+  }
+
+  /**
+   * An open addressing hash map from trigrams to posting lists. A trigram is
+   * stored as a long made of its three characters, so that indexing a text
+   * does not create any String or boxed key.
+   */
+  private static class TrigramMap {
+    private long[]     keys = new long[1024];
+    private Postings[] values = new Postings[1024];
+    private int        size;
+
+    private int slot(long key){
+      int mask, i;
+
+      mask = keys.length-1;
+      i = (int) ((key*0x9E3779B97F4A7C15L)>>>40) & mask;
+      while(values[i]!=null && keys[i]!=key){
+        i = (i+1) & mask;
+      }
+      return i;
+    }
+
+    private Postings get(long key){
+      return values[slot(key)];
+    }
+
+    private void add(long key, int id){
+      int i;
+
+      i = slot(key);
+      if (values[i]==null){
+        keys[i] = key;
+        values[i] = new Postings();
+        if (++size*2>keys.length){
+          grow();
+          i = slot(key);
+        }
+      }
+      values[i].add(id);
+    }
+
+    private void grow(){
+      long[]     oldKeys;
+      Postings[] oldValues;
+      int        i, j;
+
+      oldKeys = keys;
+      oldValues = values;
+      keys = new long[oldKeys.length*2];
+      values = new Postings[oldKeys.length*2];
+      for(i=0;i<oldKeys.length;i++){
+        if (oldValues[i]!=null){
+          j = slot(oldKeys[i]);
+          keys[j] = oldKeys[i];
+          values[j] = oldValues[i];
+        }
+      }
+    }
+  }
+}
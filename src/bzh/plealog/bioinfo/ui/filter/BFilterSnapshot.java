@@ -0,0 +1,400 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.filter.set.BFileValueSet;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+import bzh.plealog.bioinfo.io.filter.BRuleIO;
+
+/**
+ * This class handles a binary snapshot of a filter directory. The snapshot
+ * is stored as a single sidecar file within the directory and contains the
+ * decoded content of each filter file, keyed by file name, size and last
+ * modification time. It enables BFilterLoader to avoid parsing again XML files
+ * that have not changed since the last load.
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterSnapshot {
+
+  public static final String SNAPSHOT_FILE_NAME = ".bft_snapshot";
+
+  private File                _snapshotFile;
+  private Map<String, Record> _records;
+  private Map<String, Record> _updatedRecords;
+  private boolean             _dirty;
+
+  private static final int    MAGIC = 0x42465353;//BFSS
+  private static final int    VERSION = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte T_NULL    = 0;
+  private static final byte T_STRING  = 1;
+  private static final byte T_DOUBLE  = 2;
+  private static final byte T_LONG    = 3;
+  private static final byte T_INTEGER = 4;
+  private static final byte T_BOOLEAN = 5;
+  private static final byte T_CHAR    = 6;
+  private static final byte T_DATE    = 7;
+  private static final byte T_LIST    = 8;
+  private static final byte T_SET     = 9;
+  //10 was used by serialized objects: these are not accepted anymore
+  private static final byte T_FILE_SET = 11;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BFilterSnapshot");
+
+  /**
+   * Constructor.
+   *
+   * @param directory the filter directory
+   */
+  public BFilterSnapshot(File directory){
+    _snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+    _records = new HashMap<String, Record>();
+    _updatedRecords = new ConcurrentHashMap<String, Record>();
+  }
+
+  /**
+   * Reads the snapshot file. If the file does not exist or cannot be read,
+   * the snapshot is simply empty.
+   */
+  public void read(){
+    DataInputStream dis;
+    Record          rec;
+    String          name;
+    int             i, size;
+
+    _records.clear();
+    _updatedRecords.clear();
+    _dirty = false;
+    if (!_snapshotFile.exists())
+      return;
+    try{
+      dis = new DataInputStream(new BufferedInputStream(new FileInputStream(_snapshotFile), 64*1024));
+      try{
+        if (dis.readInt()!=MAGIC || dis.readInt()!=VERSION){
+          _dirty = true;
+          return;
+        }
+        size = dis.readInt();
+        for(i=0;i<size;i++){
+          name = readString(dis);
+          rec = new Record(dis.readLong(), dis.readLong(), readFilter(dis));
+          _records.put(name, rec);
+        }
+      }
+      finally{
+        dis.close();
+      }
+    }
+    catch(Exception ex){
+      _logger.warn("Unable to read filter snapshot: "+_snapshotFile+": "+ex);
+      _records.clear();
+      _dirty = true;
+    }
+  }
+
+  /**
+   * Returns the decoded content of a filter file if it has not changed since
+   * the snapshot was written. Return null otherwise. This method can be
+   * called concurrently once read() has returned.
+   */
+  public BFilterIO get(File file){
+    Record rec;
+
+    rec = _records.get(file.getName());
+    if (rec==null || rec.size!=file.length() || rec.lastModified!=file.lastModified())
+      return null;
+    _updatedRecords.put(file.getName(), rec);
+    return rec.filter;
+  }
+
+  /**
+   * Records the decoded content of a filter file. This method can be called
+   * concurrently.
+   */
+  public void put(File file, BFilterIO filter){
+    _updatedRecords.put(file.getName(), new Record(file.length(), file.lastModified(), filter));
+    _dirty = true;
+  }
+
+  /**
+   * Writes the snapshot if its content changed since the last read. Only the
+   * files passed to get() or put() since then are retained.
+   */
+  public void write(){
+    DataOutputStream            dos, recDos;
+    ByteArrayOutputStream       recBuf;
+    ArrayList<byte[]>           encoded;
+    File                        tmpFile;
+    Map.Entry<String, Record>   entry;
+    Iterator<Map.Entry<String, Record>> iter;
+    Record                      rec;
+
+    if (!_dirty && _updatedRecords.size()==_records.size())
+      return;
+    tmpFile = null;
+    try{
+      //a filter that cannot be encoded is left out: its XML file will be
+      //parsed again on next load
+      encoded = new ArrayList<byte[]>(_updatedRecords.size());
+      recBuf = new ByteArrayOutputStream();
+      recDos = new DataOutputStream(recBuf);
+      iter = _updatedRecords.entrySet().iterator();
+      while(iter.hasNext()){
+        entry = iter.next();
+        rec = entry.getValue();
+        recBuf.reset();
+        try{
+          writeString(recDos, entry.getKey());
+          recDos.writeLong(rec.size);
+          recDos.writeLong(rec.lastModified);
+          writeFilter(recDos, rec.filter);
+          recDos.flush();
+          encoded.add(recBuf.toByteArray());
+        }
+        catch(IOException ex){
+          _logger.debug("Filter not stored in snapshot: "+entry.getKey()+": "+ex);
+        }
+      }
+      tmpFile = File.createTempFile(SNAPSHOT_FILE_NAME, ".tmp", _snapshotFile.getParentFile());
+      dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64*1024));
+      try{
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(encoded.size());
+        for(byte[] data : encoded){
+          dos.write(data);
+        }
+      }
+      finally{
+        dos.close();
+      }
+      Files.move(tmpFile.toPath(), _snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      _records = new HashMap<String, Record>(_updatedRecords);
+      _dirty = false;
+    }
+    catch(Exception ex){
+      _logger.warn("Unable to write filter snapshot: "+_snapshotFile+": "+ex);
+      if (tmpFile!=null)
+        tmpFile.delete();
+    }
+  }
+
+  static void writeString(DataOutputStream dos, String str) throws IOException{
+    byte[] data;
+
+    if (str==null){
+      dos.writeInt(-1);
+      return;
+    }
+    data = str.getBytes(UTF8);
+    dos.writeInt(data.length);
+    dos.write(data);
+  }
+
+  static String readString(DataInputStream dis) throws IOException{
+    byte[] data;
+    int    len;
+
+    len = dis.readInt();
+    if (len<0)
+      return null;
+    data = new byte[len];
+    dis.readFully(data);
+    return new String(data, UTF8);
+  }
+
+  /**
+   * Encodes a filter. Also used by BFilterPackedStore.
+   * 
+   * @throws IOException if the filter contains a value that cannot be
+   * encoded
+   */
+  static void writeFilter(DataOutputStream dos, BFilterIO filter) throws IOException{
+    List<BRuleIO> rules;
+    BRuleIO       rule;
+    int           i, size;
+
+    writeString(dos, filter.getName());
+    writeString(dos, filter.getDescription());
+    dos.writeBoolean(filter.isExclusive());
+    rules = filter.getRules();
+    size = rules==null ? 0 : rules.size();
+    dos.writeInt(size);
+    for(i=0;i<size;i++){
+      rule = rules.get(i);
+      writeString(dos, rule.getAccessor());
+      writeString(dos, rule.getOperator());
+      writeValue(dos, rule.getValue());
+    }
+  }
+
+  /**
+   * Decodes a filter encoded with writeFilter().
+   */
+  static BFilterIO readFilter(DataInputStream dis) throws IOException{
+    BFilterIO filter;
+    String    accessor, operator;
+    int       i, size;
+
+    filter = new BFilterIO();
+    filter.setName(readString(dis));
+    filter.setDescription(readString(dis));
+    filter.setExclusive(dis.readBoolean());
+    size = dis.readInt();
+    for(i=0;i<size;i++){
+      accessor = readString(dis);
+      operator = readString(dis);
+      filter.add(new BRuleIO(accessor, operator, readValue(dis)));
+    }
+    return filter;
+  }
+
+  private static void writeValue(DataOutputStream dos, Object value) throws IOException{
+    Collection<?> col;
+
+    if (value==null){
+      dos.writeByte(T_NULL);
+    }
+    else if (value instanceof String){
+      dos.writeByte(T_STRING);
+      writeString(dos, (String) value);
+    }
+    else if (value instanceof Double){
+      dos.writeByte(T_DOUBLE);
+      dos.writeDouble((Double) value);
+    }
+    else if (value instanceof Long){
+      dos.writeByte(T_LONG);
+      dos.writeLong((Long) value);
+    }
+    else if (value instanceof Integer){
+      dos.writeByte(T_INTEGER);
+      dos.writeInt((Integer) value);
+    }
+    else if (value instanceof Boolean){
+      dos.writeByte(T_BOOLEAN);
+      dos.writeBoolean((Boolean) value);
+    }
+    else if (value instanceof Character){
+      dos.writeByte(T_CHAR);
+      dos.writeChar((Character) value);
+    }
+    else if (value.getClass()==Date.class){
+      dos.writeByte(T_DATE);
+      dos.writeLong(((Date) value).getTime());
+    }
+    else if (value instanceof BFileValueSet){
+      //only the reference to the file, as in the XML files
+      dos.writeByte(T_FILE_SET);
+      writeString(dos, ((BFileValueSet) value).getPath());
+      dos.writeBoolean(((BFileValueSet) value).isBloomFilterEnabled());
+    }
+    else if (value.getClass()==ArrayList.class || value.getClass()==HashSet.class){
+      col = (Collection<?>) value;
+      dos.writeByte(value instanceof List ? T_LIST : T_SET);
+      dos.writeInt(col.size());
+      for(Object obj : col){
+        writeValue(dos, obj);
+      }
+    }
+    else{
+      //arbitrary objects are not stored: the snapshot and the packs are
+      //shared files, they must not contain serialized objects
+      throw new IOException("unsupported value type: "+value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInputStream dis) throws IOException{
+    Collection<Object> col;
+    byte               type;
+    int                i, size;
+
+    type = dis.readByte();
+    switch(type){
+      case T_NULL:
+        return null;
+      case T_STRING:
+        return readString(dis);
+      case T_DOUBLE:
+        return dis.readDouble();
+      case T_LONG:
+        return dis.readLong();
+      case T_INTEGER:
+        return dis.readInt();
+      case T_BOOLEAN:
+        return dis.readBoolean();
+      case T_CHAR:
+        return dis.readChar();
+      case T_DATE:
+        return new Date(dis.readLong());
+      case T_LIST:
+      case T_SET:
+        size = dis.readInt();
+        if (type==T_LIST)
+          col = new ArrayList<Object>(size);
+        else
+          col = new HashSet<Object>(size*2);
+        for(i=0;i<size;i++){
+          col.add(readValue(dis));
+        }
+        return col;
+      case T_FILE_SET:
+        return new BFileValueSet(readString(dis), dis.readBoolean());
+      default:
+        throw new IOException("unknown value type");
+    }
+  }
+
+  private static class Record {
+    private long      size;
+    private long      lastModified;
+    private BFilterIO filter;
+
+    private Record(long size, long lastModified, BFilterIO filter){
+      this.size = size;
+      this.lastModified = lastModified;
+      this.filter = filter;
+    }
+  }
+}
@@ -19,19 +19,24 @@ package bzh.plealog.bioinfo.ui.filter;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
-import java.awt.Dialog;
+import java.awt.Font;
 import java.awt.FontMetrics;
-import java.awt.Frame;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Window;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -39,14 +44,23 @@ import javax.swing.BorderFactory;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.EventListenerList;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.RowSorterEvent;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.TableCellRenderer;
@@ -60,7 +74,9 @@ import com.plealog.genericapp.api.file.EZFileUtils;
 
 import bzh.plealog.bioinfo.api.filter.BDataAccessors;
 import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.api.filter.BFilterException;
 import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.filter.set.BFileValueSet;
 import bzh.plealog.bioinfo.io.filter.FilterSerializer;
 import bzh.plealog.bioinfo.io.filter.FilterSerializerException;
 import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
@@ -71,9 +87,11 @@ import bzh.plealog.bioinfo.ui.modules.filter.FilterSystemUI;
  * within a JTable and the UI proposes buttons to add, copy, delete and edit 
  * BFilters.
  * 
+ * Filters can be stored in a BFilterRepository: see setRepository().
+ * 
  * @author Patrick G. Durand
  */
-public class BFilterTable extends JPanel {
+public class BFilterTable extends JPanel implements BFilterManager {
   private static final long serialVersionUID = -4560985083271901616L;
   private BDataAccessors    _filterModel;
   private FilterTable       _table;
@@ -87,6 +105,28 @@ public class BFilterTable extends JPanel {
   private Component         _parent;
   private JLabel            _filterName;
   private RulesTableCellRenderer _rulesRenderer;
+  private BFilterRepository _repository;
+  private BFilterEditorListener _repositoryListener;
+  //index of the filters of the table when it has no repository; null when
+  //the model has changed since it was built
+  private volatile BFilterMemoryRepository _localIndex;
+  private File              _lastImportDir;
+  private BFilterTableRowSorter _sorter;
+  //column layout: width of the fixed columns, computed for _columnCount
+  //columns and _columnFont
+  private int     _columnCount = -1;
+  private int     _fixedWidth;
+  private int     _flexColumn = -1;
+  private Font    _columnFont;
+  private Timer   _columnLayoutTimer;
+  private JTextField        _searchField;
+  private BFilterSearchIndex _searchIndex;
+  private boolean           _searchIndexReady;
+  private boolean           _editable = true;
+
+  private static final String ZIP_FILE_EXT = ".zip";
+  //delay before updating the column layout while the table is resized (ms)
+  private static final int COLUMN_LAYOUT_DELAY = 100;
 
   /**
    * Constructor.
@@ -126,7 +166,7 @@ public class BFilterTable extends JPanel {
   
   public BFilterTable(BDataAccessors fModel, boolean showControls, boolean showIOControls, boolean allowMultipleSelection,
       boolean showFilterName){
-    JPanel      btnPanel, ctrlPnl;
+    JPanel      btnPanel, ctrlPnl, searchPnl;
     JScrollPane scroll;
 
     _filterModel = fModel;
@@ -138,6 +178,15 @@ public class BFilterTable extends JPanel {
     _table.setColumnSelectionAllowed(false);
     _table.setRowSelectionAllowed(true);
     _table.setGridColor(Color.LIGHT_GRAY);
+    _table.setDefaultRenderer(BFilterRuleSummary.class, _rulesRenderer);
+    //rows are sorted by clicking column headers, and filtered by the search field
+    _sorter = new BFilterTableRowSorter(FilterSystemUI.getFilterCentralRepository());
+    _table.setRowSorter(_sorter);
+    _table.getModel().addTableModelListener(new TableModelListener() {
+      public void tableChanged(TableModelEvent e) {
+        _localIndex = null;
+      }
+    });
     _table.getSelectionModel().setSelectionMode(
         allowMultipleSelection ? ListSelectionModel.MULTIPLE_INTERVAL_SELECTION : ListSelectionModel.SINGLE_SELECTION);
     _table.getSelectionModel().addListSelectionListener(new MySelectionListener());
@@ -155,6 +204,16 @@ public class BFilterTable extends JPanel {
     }
     this.setLayout(new BorderLayout());
     this.add(scroll, BorderLayout.CENTER);
+    if (showControls){
+      _searchField = new JTextField();
+      _searchField.setToolTipText(FilterMessages.getString("BFilterTable.search.tip"));
+      _searchField.getDocument().addDocumentListener(new SearchFieldListener());
+      searchPnl = new JPanel(new BorderLayout());
+      searchPnl.add(new JLabel(FilterMessages.getString("BFilterTable.search.lbl")+" "), BorderLayout.WEST);
+      searchPnl.add(_searchField, BorderLayout.CENTER);
+      searchPnl.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+      this.add(searchPnl, BorderLayout.NORTH);
+    }
     ctrlPnl = new JPanel(new BorderLayout());
     if (showControls){
       btnPanel = new JPanel();
@@ -275,75 +334,318 @@ public class BFilterTable extends JPanel {
     public void valueChanged(ListSelectionEvent e){
       if (e.getValueIsAdjusting())
         return;
-      ListSelectionModel sModel = (ListSelectionModel)e.getSource();
-      int[]              rows;
-      boolean            selected, empty;
-
-      empty= sModel.isSelectionEmpty();
-      if (empty){
-        _copyBtn.setEnabled(false);
-        _editBtn.setEnabled(false);
-        _deleteBtn.setEnabled(false);
-        _exportBtn.setEnabled(false);
-        if (_filterName!=null) _filterName.setText("-");
-        return;
-      }
-      rows = _table.getSelectedRows();
-      selected = (rows.length == 1);
-      _copyBtn.setEnabled(selected);
-      _editBtn.setEnabled(selected);
-      _exportBtn.setEnabled(selected);
-      _deleteBtn.setEnabled(true);
-      if (rows.length==1){
-        BFilterTableModel dModel = (BFilterTableModel) _table.getModel();
-        BFilterEntry entry = (BFilterEntry) dModel.getValueAt(rows[0], -1);
-        String fName = EZFileUtils.getFileName(new File(entry.getFileName()));
-        if (_filterName!=null) _filterName.setText(fName);
-      }
-      else{
-        if (_filterName!=null) _filterName.setText("-");
-      }
+      updateControls();
+    }
+  }
+  /**
+   * Enables the controls according to the current selection.
+   */
+  private void updateControls(){
+    int[]   rows;
+    boolean selected;
+
+    if (_table.getSelectionModel().isSelectionEmpty()){
+      _copyBtn.setEnabled(false);
+      _editBtn.setEnabled(false);
+      _deleteBtn.setEnabled(false);
+      _exportBtn.setEnabled(false);
+      if (_filterName!=null) _filterName.setText("-");
+      return;
+    }
+    rows = _table.getSelectedRows();
+    selected = (rows.length == 1);
+    _copyBtn.setEnabled(_editable && selected);
+    _editBtn.setEnabled(_editable && selected);
+    _exportBtn.setEnabled(true);
+    _deleteBtn.setEnabled(_editable);
+    if (rows.length==1){
+      BFilterTableModel dModel = (BFilterTableModel) _table.getModel();
+      BFilterEntry entry = (BFilterEntry) dModel.getValueAt(_table.convertRowIndexToModel(rows[0]), -1);
+      String fName = EZFileUtils.getFileName(new File(entry.getFileName()));
+      if (_filterName!=null) _filterName.setText(fName);
+    }
+    else{
+      if (_filterName!=null) _filterName.setText("-");
+    }
+  }
+  /**
+   * Enables or disables the controls that modify the filters: New, Copy,
+   * Edit, Delete and Import. Use this method to prevent any edition while
+   * the repository of this table is not available yet.
+   */
+  public void setEditable(boolean editable){
+    _editable = editable;
+    _newBtn.setEnabled(editable);
+    _importBtn.setEnabled(editable);
+    updateControls();
+  }
+
+  /**
+   * Figures out whether or not the filters can be modified from this table.
+   */
+  public boolean isEditable(){
+    return _editable;
+  }
+  /**
+   * Sets the repository where to store the filters edited within this table.
+   * Call initialize() to display the content of the repository.
+   * 
+   * @param repository the repository. Use null to stop storing filters.
+   */
+  public void setRepository(BFilterRepository repository){
+    if (_repositoryListener!=null){
+      removeBFilterEditListener(_repositoryListener);
+      _repositoryListener = null;
     }
+    _repository = repository;
+    if (repository!=null){
+      _repositoryListener = new BFilterEditorListener(repository);
+      addBFilterEditListener(_repositoryListener);
+    }
+  }
+
+  /**
+   * Returns the repository where are stored the filters edited within this
+   * table. May return null.
+   */
+  public BFilterRepository getRepository(){
+    return _repository;
+  }
+
+  /**
+   * Waits until the changes made within this table are written to its
+   * repository, including the deletions done in the background.
+   * 
+   * @param timeout maximum time to wait, in milliseconds
+   * 
+   * @return true if all changes have been written, false if the timeout elapsed
+   */
+  public boolean flush(long timeout){
+    return _repositoryListener==null ? true : _repositoryListener.flush(timeout);
   }
+
   /**
-   * Initializes the table with a list of BFilterEntry objects.
+   * Initializes the table with a list of BFilterEntry objects. This method can
+   * be called several times to populate the table progressively: the first
+   * row is selected only if there is no selection yet.
    */
   public void initialize(List<BFilterEntry> entries){
     BFilterTableModel dModel;
-    Iterator<BFilterEntry>  iter;
-    BFilterEntry            obj;
 
     dModel = (BFilterTableModel) _table.getModel();
-
-    iter = entries.iterator();
-    while(iter.hasNext()){
-      obj = iter.next();
-      dModel.addFilter((BFilterEntry)obj);
-    }
-    reassignRowHeight();
-    if (_table.getModel().getRowCount()!=0){
+    //a single event for the whole set of entries
+    dModel.addAll(entries);
+    if (_table.getRowCount()!=0 && _table.getSelectionModel().isSelectionEmpty()){
       _table.getSelectionModel().setSelectionInterval(0, 0);
     }
   }
   private class FilterTable extends JTable {
     private static final long serialVersionUID = -331746387726689702L;
+    private Font    _metricsFont;
+    private int     _lineHeight;
+    private boolean _batchUpdate;
+    //entries whose row height could not be set since they were hidden
+    private Map<BFilterEntry, BFilterEntry> _hiddenRows;
+
     private FilterTable(TableModel dm) {
       super(dm);
     }
     public void tableChanged(TableModelEvent event){
+      BFilterTableModelEvent deleted = null;
+      int[]                  selection = null;
+      int                    topRow = -1;
+
+      if (event instanceof BFilterTableModelEvent 
+          && ((BFilterTableModelEvent) event).getEventType()==BFilterTableModelEvent.TYPE.TYPE_FILTERS_DELETED){
+        //JTable is going to clear the selection: convert it now, while the
+        //row sorter still maps the rows before the deletion
+        deleted = (BFilterTableModelEvent) event;
+        selection = getRemainingSelection(deleted);
+        topRow = getRemainingTopRow(deleted);
+      }
       super.tableChanged(event);
-      reassignRowHeight();
+      if (event==null || event.getFirstRow()==TableModelEvent.HEADER_ROW
+          || event.getLastRow()==Integer.MAX_VALUE){
+        //JTable has reset the height of all rows
+        updateAllRowHeights();
+      }
+      else if (event.getType()!=TableModelEvent.DELETE){
+        updateRowHeights(event.getFirstRow(), event.getLastRow());
+      }
+      if (deleted!=null)
+        restoreView(selection, topRow);
     }
-    public TableCellRenderer getCellRenderer(int row, int column) {
-      if (column==2)
-        return _rulesRenderer;
-      else
-        return super.getCellRenderer(row, column);
+    /**
+     * Returns the model indices, after a deletion, of the selected rows 
+     * that have not been deleted.
+     */
+    private int[] getRemainingSelection(BFilterTableModelEvent event){
+      int[] rows, selection;
+      int   i, n, row;
+
+      rows = getSelectedRows();
+      selection = new int[rows.length];
+      n = 0;
+      for(i=0;i<rows.length;i++){
+        row = event.convertRowIndex(convertRowIndexToModel(rows[i]));
+        if (row!=-1)
+          selection[n++] = row;
+      }
+      return Arrays.copyOf(selection, n);
+    }
+    /**
+     * Returns the model index, after a deletion, of the first visible row 
+     * that has not been deleted. Returns -1 if there is no such row.
+     */
+    private int getRemainingTopRow(BFilterTableModelEvent event){
+      int i, n, row;
+
+      i = rowAtPoint(getVisibleRect().getLocation());
+      if (i==-1)
+        return -1;
+      n = getRowCount();
+      for(;i<n;i++){
+        row = event.convertRowIndex(convertRowIndexToModel(i));
+        if (row!=-1)
+          return row;
+      }
+      return -1;
+    }
+    /**
+     * Selects some rows given their model indices and scrolls the table so
+     * that a row is displayed at the top of the viewport.
+     */
+    private void restoreView(int[] selection, int topRow){
+      ListSelectionModel sModel;
+      Rectangle          visible, rect;
+      int                i, row;
+
+      sModel = getSelectionModel();
+      sModel.setValueIsAdjusting(true);
+      try{
+        for(i=0;i<selection.length;i++){
+          row = convertRowIndexToView(selection[i]);
+          if (row!=-1)
+            sModel.addSelectionInterval(row, row);
+        }
+      }
+      finally{
+        sModel.setValueIsAdjusting(false);
+      }
+      row = topRow!=-1 ? convertRowIndexToView(topRow) : -1;
+      if (row==-1)
+        return;
+      visible = getVisibleRect();
+      rect = getCellRect(row, 0, true);
+      scrollRectToVisible(new Rectangle(visible.x, rect.y, visible.width, visible.height));
+    }
+    @Override
+    public void setFont(Font font){
+      super.setFont(font);
+      if (font!=null && !font.equals(_metricsFont))
+        updateAllRowHeights();
+    }
+    @Override
+    public void sorterChanged(RowSorterEvent e){
+      ArrayList<Integer> rows;
+      TableModel         tm;
+      int                i, n;
+
+      super.sorterChanged(e);
+      if (_hiddenRows==null || _hiddenRows.isEmpty())
+        return;
+      //set the height of the rows that have become visible
+      tm = getModel();
+      rows = new ArrayList<Integer>();
+      n = getRowCount();
+      for(i=0;i<n;i++){
+        if (_hiddenRows.remove(tm.getValueAt(convertRowIndexToModel(i), -1))!=null)
+          rows.add(convertRowIndexToModel(i));
+        if (_hiddenRows.isEmpty())
+          break;
+      }
+      for(Integer row : rows){
+        updateRowHeights(row, row);
+      }
+    }
+    @Override
+    protected void resizeAndRepaint(){
+      //done once at the end of a batch of row height updates
+      if (!_batchUpdate)
+        super.resizeAndRepaint();
+    }
+    /**
+     * Returns the height of a line of text. Font metrics are only queried
+     * when the font changes.
+     */
+    private int getLineHeight(){
+      Font font;
+
+      font = getFont();
+      if (_metricsFont==null || !_metricsFont.equals(font)){
+        _metricsFont = font;
+        _lineHeight = getFontMetrics(font).getHeight();
+      }
+      return _lineHeight;
+    }
+    private void updateAllRowHeights(){
+      if (_hiddenRows!=null)
+        _hiddenRows.clear();
+      updateRowHeights(0, getModel().getRowCount()-1);
+    }
+    /**
+     * Updates the height of some rows given their model indices. Only rows
+     * whose number of rules has changed are updated, then the table is laid
+     * out once.
+     */
+    private void updateRowHeights(int first, int last){
+      TableModel   tm;
+      BFilterEntry bfe;
+      boolean      changed = false;
+      int          i, row, height, lineHeight;
+
+      tm = getModel();
+      last = Math.min(last, tm.getRowCount()-1);
+      if (first<0 || first>last)
+        return;
+      lineHeight = getLineHeight();
+      _batchUpdate = true;
+      try{
+        for(i=first;i<=last;i++){
+          row = convertRowIndexToView(i);
+          bfe = (BFilterEntry) tm.getValueAt(i, -1);
+          if (row==-1){
+            if (_hiddenRows==null)
+              _hiddenRows = new IdentityHashMap<BFilterEntry, BFilterEntry>();
+            _hiddenRows.put(bfe, bfe);
+            continue;
+          }
+          height = bfe.getRuleCount()*lineHeight+10;
+          if (getRowHeight(row)!=height){
+            setRowHeight(row, height);
+            changed = true;
+          }
+        }
+      }
+      finally{
+        _batchUpdate = false;
+      }
+      if (changed)
+        resizeAndRepaint();
     }
   }
-  private class RulesTableCellRenderer extends JLabel
+  /**
+   * Renders the rules of a filter, one rule per line. Rules are painted
+   * directly from the BFilterRuleSummary cached by each entry: no HTML is
+   * involved.
+   */
+  private class RulesTableCellRenderer extends JComponent
   implements TableCellRenderer {
     private static final long serialVersionUID = 2711647318794306290L;
+    private Object _value;
+    private Font   _plainFont;
+    private Font[] _fonts;
+
     public RulesTableCellRenderer(){
       this.setOpaque(true);
       this.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 2));
@@ -360,16 +662,72 @@ public class BFilterTable extends JPanel {
         this.setForeground(table.getForeground());
         this.setBackground(table.getBackground());
       }
-      this.setText(value.toString());
+      _value = value;
       this.setEnabled(table.isEnabled());
       this.setFont(table.getFont());
       return this;
     }
+    /**
+     * Returns the fonts used to paint the text segments, indexed by style.
+     * They are only derived when the font changes.
+     */
+    private Font[] getFonts(){
+      Font font;
+
+      font = getFont();
+      if (_fonts==null || !font.equals(_plainFont)){
+        _plainFont = font;
+        _fonts = new Font[3];
+        _fonts[BFilterRuleSummary.PLAIN] = font;
+        _fonts[BFilterRuleSummary.BOLD] = font.deriveFont(Font.BOLD);
+        _fonts[BFilterRuleSummary.ITALIC] = font.deriveFont(Font.ITALIC);
+      }
+      return _fonts;
+    }
     public void paintComponent(Graphics g){
-      ((Graphics2D)g).setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+      Graphics2D         g2;
+      BFilterRuleSummary summary;
+      FontMetrics        fm;
+      Insets             insets;
+      Font[]             fonts;
+      String[]           texts;
+      int[]              styles;
+      int                i, j, x, y, lineHeight;
+
+      g2 = (Graphics2D) g;
+      if (isOpaque()){
+        g2.setColor(getBackground());
+        g2.fillRect(0, 0, getWidth(), getHeight());
+      }
+      if (_value==null)
+        return;
+      g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
           RenderingHints.VALUE_ANTIALIAS_ON);
-      super.paintComponent(g);
-      ((Graphics2D)g).setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+      g2.setColor(isEnabled() ? getForeground() : Color.GRAY);
+      fonts = getFonts();
+      fm = g2.getFontMetrics(fonts[BFilterRuleSummary.PLAIN]);
+      lineHeight = fm.getHeight();
+      insets = getInsets();
+      y = insets.top + fm.getAscent();
+      if (!(_value instanceof BFilterRuleSummary)){
+        g2.setFont(fonts[BFilterRuleSummary.PLAIN]);
+        g2.drawString(_value.toString(), insets.left, y);
+      }
+      else{
+        summary = (BFilterRuleSummary) _value;
+        for(i=0;i<summary.getLineCount();i++){
+          texts = summary.getTexts(i);
+          styles = summary.getStyles(i);
+          x = insets.left;
+          for(j=0;j<texts.length;j++){
+            g2.setFont(fonts[styles[j]]);
+            g2.drawString(texts[j], x, y);
+            x += g2.getFontMetrics().stringWidth(texts[j]);
+          }
+          y += lineHeight;
+        }
+      }
+      g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
           RenderingHints.VALUE_ANTIALIAS_OFF);
     }
   }
@@ -402,27 +760,36 @@ public class BFilterTable extends JPanel {
   }    
 
   /**
-   * Helper method invoking the BFilterEditorDialog.
+   * Helper method invoking the BFilterEditorDialog. The dialog is shared by
+   * all the tables having the same parent window.
    */
   private BFilter editFilter(BFilter initFilter){
     BFilterEditorDialog filterDialog;
-    BFilter             filter;
-
-    if (_parent instanceof Dialog){
-      filterDialog = new BFilterEditorDialog(
-          (Dialog)_parent, 
-          FilterMessages.getString("BFilterTable.ui.editorDlg"), 
-          _filterModel, 
-          initFilter);		}
-    else{
-      filterDialog = new BFilterEditorDialog(
-          (Frame)_parent, 
-          FilterMessages.getString("BFilterTable.ui.editorDlg"), 
-          _filterModel,
-          initFilter);		}
 
-    filter = filterDialog.getFilter();
-    return filter;
+    filterDialog = BFilterEditorDialogCache.getDialog(getOwnerWindow(), _filterModel);
+    filterDialog.setTitle(FilterMessages.getString("BFilterTable.ui.editorDlg"));
+    return filterDialog.showDialog(initFilter);
+  }
+
+  /**
+   * Returns the window to use as the parent of the editor dialog.
+   */
+  public Window getOwnerWindow(){
+    if (_parent instanceof Window)
+      return (Window) _parent;
+    else if (_parent!=null)
+      return SwingUtilities.getWindowAncestor(_parent);
+    else
+      return SwingUtilities.getWindowAncestor(this);
+  }
+
+  /**
+   * Builds the editor dialog of this table ahead of time, so that the first
+   * New or Edit action opens at once. Call this method once the table is
+   * displayed.
+   */
+  public void prewarmEditor(){
+    BFilterEditorDialogCache.prewarm(getOwnerWindow(), _filterModel);
   }
 
   /**
@@ -455,35 +822,51 @@ public class BFilterTable extends JPanel {
       return null;
     entries = new BFilterEntry[rows.length];
     for(i=0;i<rows.length;i++){
-      entries[i] = (BFilterEntry) _table.getModel().getValueAt(rows[i], -1);
+      entries[i] = (BFilterEntry) _table.getModel().getValueAt(_table.convertRowIndexToModel(rows[i]), -1);
     }
     return entries;
   }
 
   /**
-   * Returns a particular filter given its name.
+   * Returns a particular filter given its name. Lookups are delegated to the
+   * repository of this table, if any.
    */
   public BFilterEntry getFilter(String aliasName){
-    BFilterTableModel dModel;
-    BFilterEntry     fEntry;
-    int              i, size;
+    return getIndex().getFilter(aliasName);
+  }
 
-    dModel = (BFilterTableModel) _table.getModel();
-    size = dModel.getRowCount();
-    for(i=0;i<size;i++){
-      fEntry = (BFilterEntry) dModel.getValueAt(i, -1);
-      if (fEntry.getFilter().getName().equals(aliasName)){
-        return fEntry;
+  /**
+   * Returns the index of the filters: the repository of this table if any,
+   * otherwise an in-memory index of the rows, built again once the model
+   * has changed.
+   */
+  private BFilterManager getIndex(){
+    BFilterMemoryRepository index;
+    BFilterTableModel       dModel;
+    ArrayList<BFilterEntry> entries;
+    int                     i, size;
+
+    if (_repository!=null)
+      return _repository;
+    index = _localIndex;
+    if (index==null){
+      dModel = (BFilterTableModel) _table.getModel();
+      size = dModel.getRowCount();
+      entries = new ArrayList<BFilterEntry>(size);
+      for(i=0;i<size;i++){
+        entries.add(dModel.getEntry(i));
       }
+      index = new BFilterMemoryRepository(entries);
+      _localIndex = index;
     }
-    return null;
+    return index;
   }
 
   /**
    * Return the number of filters contained in this table.
    */
   public int filters(){
-    return _table.getRowCount();
+    return _table.getModel().getRowCount();
   }
   
   /**
@@ -495,23 +878,28 @@ public class BFilterTable extends JPanel {
   
   /**
    * Returns a list of all Filters available. The returned list contains
-   * String objects, each of them being the alias name of a Filter.
+   * String objects, each of them being the alias name of a Filter. Aliases
+   * are provided by the repository of this table, if any.
    */
   public List<String> getFilterAliases(){
+    return getIndex().getFilterAliases();
+  }
+
+  /**
+   * Adds imported filters to the table. The table is updated once for the
+   * whole set of filters.
+   */
+  void addImportedEntries(List<BFilterEntry> entries){
     BFilterTableModel dModel;
-    BFilterEntry      fEntry;
-    int               i, size;
-    ArrayList<String> aliases;
 
-    aliases = new ArrayList<String>();
+    if (entries.isEmpty())
+      return;
     dModel = (BFilterTableModel) _table.getModel();
-    size = dModel.getRowCount();
-    for(i=0;i<size;i++){
-      fEntry = (BFilterEntry) dModel.getValueAt(i, -1);
-      aliases.add(fEntry.getFilter().getName());
+    dModel.addAll(entries);
+    for(BFilterEntry fEntry : entries){
+      fireHitChange(new BFilterEditEvent(fEntry, BFilterEditEvent.FILTER_ADDED));
     }
-
-    return aliases;
+    selectModelRow(dModel.getRowCount() - 1);
   }
 
   private class ImportAction extends AbstractAction{
@@ -525,36 +913,27 @@ public class BFilterTable extends JPanel {
     public ImportAction(String name, Icon icon){
         super(name, icon);
     }
-    private File chooseFile(){
-      return EZFileManager.chooseFileForOpenAction(
-          BFilterTable.this,
-          FilterMessages.getString("BFilterTable.import.dlg.header"),
-          null);
+    private File[] chooseFiles(){
+      JFileChooser chooser;
+
+      chooser = new JFileChooser(_lastImportDir);
+      chooser.setDialogTitle(FilterMessages.getString("BFilterTable.import.dlg.header"));
+      chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+      chooser.setMultiSelectionEnabled(true);
+      if (chooser.showOpenDialog(BFilterTable.this)!=JFileChooser.APPROVE_OPTION)
+        return null;
+      _lastImportDir = chooser.getCurrentDirectory();
+      return chooser.getSelectedFiles();
     }
     public void actionPerformed(ActionEvent e){
-      FilterSerializer  serializer;
-      BFilter           filter = null;
-      BFilterEntry      fEntry;
-      File              f;
+      File[] files;
 
-      f = chooseFile();
-      if (f==null)
-        return;
-      serializer = FilterSystemConfigurator.getSerializer();
-      try {
-        filter = serializer.load(_filterModel, f);
-      } catch (FilterSerializerException e1) {
-        EZEnvironment.displayWarnMessage(BFilterTable.this,FilterMessages.getString("BFilterTable.import.err"));
+      files = chooseFiles();
+      if (files==null || files.length==0)
         return;
-      }
-      fEntry = addFilterInTable(filter);
-      if (fEntry==null)
-        return;
-      fireHitChange(new BFilterEditEvent(fEntry, BFilterEditEvent.FILTER_ADDED));
-      reassignRowHeight();
-      int sel = _table.getRowCount() - 1;
-      _table.getSelectionModel().setSelectionInterval(sel, sel);
-      _table.scrollRectToVisible(_table.getCellRect(sel, 0, true));
+      //filter files and zip bundles are parsed in the background
+      new BFilterImportWorker(BFilterTable.this, files, _filterModel, 
+          FilterSystemConfigurator.getSerializer()).start(BFilterTable.this);
     }
   }
   private class ExportAction extends AbstractAction{
@@ -568,6 +947,16 @@ public class BFilterTable extends JPanel {
     public ExportAction(String name, Icon icon){
         super(name, icon);
     }
+    private File chooseZipFile(){
+      File f;
+
+      f = EZFileManager.chooseFileForSaveAction(BFilterTable.this, 
+          FilterMessages.getString("BFilterTable.export.dlg.header"), null);
+      if (f!=null && !f.getName().toLowerCase().endsWith(ZIP_FILE_EXT)){
+        f = new File(f.getAbsolutePath()+ZIP_FILE_EXT);
+      }
+      return f;
+    }
     private File chooseFile(){
       return EZFileManager.chooseFileForSaveAction(BFilterTable.this, "Save filter", null);
       /*DDFileExt fe = DDFileTypes.getFileForSaveAction(
@@ -590,8 +979,21 @@ public class BFilterTable extends JPanel {
       fEntries = getSelectedEntries();
       if (fEntries==null)
         return;
+      if (fEntries.length>1){
+        //several filters are exported as a single zip bundle
+        f = chooseZipFile();
+        if (f==null)
+          return;
+        new BFilterExportWorker(BFilterTable.this, Arrays.asList(fEntries), f, 
+            FilterSystemConfigurator.getSerializer()).start();
+        return;
+      }
       fEntry = fEntries[0];
       curFilter = fEntry.getFilter();
+      if (curFilter==null){
+        EZEnvironment.displayWarnMessage(BFilterTable.this,FilterMessages.getString("BFilterTable.export.err"));
+        return;
+      }
 
       f = chooseFile();
       if (f==null)
@@ -622,10 +1024,7 @@ public class BFilterTable extends JPanel {
       if (fEntry==null)
         return;
       fireHitChange(new BFilterEditEvent(fEntry, BFilterEditEvent.FILTER_ADDED));
-      reassignRowHeight();
-      int sel = _table.getRowCount() - 1;
-      _table.getSelectionModel().setSelectionInterval(sel, sel);
-      _table.scrollRectToVisible(_table.getCellRect(sel, 0, true));
+      selectModelRow(_table.getModel().getRowCount() - 1);
     }
   }
 
@@ -649,16 +1048,20 @@ public class BFilterTable extends JPanel {
       if (fEntries==null)
         return;
       curFilter = fEntries[0].getFilter();
-      newFilter = (BFilter) curFilter.clone();
+      if (curFilter==null)
+        return;
+      try {
+        newFilter = BFileValueSet.copyFilter(_filterModel, curFilter);
+      } catch (BFilterException ex) {
+        EZEnvironment.displayWarnMessage(BFilterTable.this,FilterMessages.getString("BFilterTable.copy.err"));
+        return;
+      }
       newFilter.setName("CopyOf"+newFilter.getName());
       fEntry = addFilterInTable(newFilter);
       if (fEntry==null)
         return;
-      reassignRowHeight();
       fireHitChange(new BFilterEditEvent(fEntry, BFilterEditEvent.FILTER_COPIED));
-      int sel = _table.getRowCount() - 1;
-      _table.getSelectionModel().setSelectionInterval(sel, sel);
-      _table.scrollRectToVisible(_table.getCellRect(sel, 0, true));
+      selectModelRow(_table.getModel().getRowCount() - 1);
     }
   }
 
@@ -682,16 +1085,20 @@ public class BFilterTable extends JPanel {
       fEntries = getSelectedEntries();
       if (fEntries==null)
         return;
-      sel = _table.getSelectedRows()[0];
+      sel = _table.convertRowIndexToModel(_table.getSelectedRows()[0]);
       fEntry = fEntries[0];
       curFilter = fEntry.getFilter();
+      if (curFilter==null){
+        //otherwise the editor would start with an empty filter
+        EZEnvironment.displayWarnMessage(BFilterTable.this,FilterMessages.getString("BFilterTable.edit.err"));
+        return;
+      }
       newFilter = editFilter(curFilter);
       if (newFilter!=null){
         fEntry.setFilter(newFilter);
-        reassignRowHeight();
+        ((BFilterTableModel) _table.getModel()).updateFilter(fEntry);
         fireHitChange(new BFilterEditEvent(fEntry, BFilterEditEvent.FILTER_EDITED));
-        _table.getSelectionModel().setSelectionInterval(sel, sel);
-        _table.scrollRectToVisible(_table.getCellRect(sel, 0, true));
+        selectModelRow(sel);
       }
     }
   }
@@ -719,12 +1126,15 @@ public class BFilterTable extends JPanel {
       sel = _table.getSelectedRows()[0];
       dModel = (BFilterTableModel) _table.getModel();
 
-      for(int i=0;i<fEntries.length;i++){
-        fEntry = fEntries[i];
-        dModel.removeFilter(fEntry);
-        reassignRowHeight();
+      dModel.removeAll(Arrays.asList(fEntries));
+      if (fEntries.length==1){
+        fEntry = fEntries[0];
         fireHitChange(new BFilterEditEvent(fEntry, BFilterEditEvent.FILTER_DELETED));
       }
+      else{
+        fireHitChange(new BFilterEditEvent(BFilterTable.this, Arrays.asList(fEntries), 
+            BFilterEditEvent.FILTERS_DELETED));
+      }
       if (_table.getRowCount()!=0){
         sel = Math.max(0, sel-1);
         _table.getSelectionModel().setSelectionInterval(sel, sel);
@@ -732,32 +1142,141 @@ public class BFilterTable extends JPanel {
       }
     }
   }
-  private void reassignRowHeight(){
-    TableModel   tm;
-    BFilterEntry bfe;
-    int          fmH;
+  /**
+   * Selects a row given its index in the model. If the row is hidden by the
+   * search field, the search is cleared.
+   */
+  private void selectModelRow(int row){
+    int sel;
 
-    if (_table==null)
+    if (row<0 || row>=_table.getModel().getRowCount())
       return;
-    fmH = _table.getFontMetrics(_table.getFont()).getHeight();
-    tm = _table.getModel();
-    for(int i=0;i<tm.getRowCount();i++){
-      bfe = (BFilterEntry) tm.getValueAt(i, -1);
-      _table.setRowHeight(i, bfe.getFilter().size()*fmH+10);
+    sel = _table.convertRowIndexToView(row);
+    if (sel==-1 && _searchField!=null && _searchField.getText().length()!=0){
+      _searchField.setText("");
+      sel = _table.convertRowIndexToView(row);
     }
-    _table.repaint();  
+    if (sel==-1)
+      return;
+    _table.getSelectionModel().setSelectionInterval(sel, sel);
+    _table.scrollRectToVisible(_table.getCellRect(sel, 0, true));
   }
-  private void initColumnSize(int width){
+
+  /**
+   * Returns the index used by the search field. The index is created on
+   * first use, then it is populated in the background: the content of the
+   * search field is applied once the index is ready.
+   */
+  private BFilterSearchIndex getSearchIndex(){
+    BFilterTableModel dModel;
+
+    if (_searchIndex!=null)
+      return _searchIndex;
+    _searchIndex = new BFilterSearchIndex();
+    //keep the index up to date with the edition operations as well as with
+    //the changes made directly on the model (e.g. by a repository watcher)
+    addBFilterEditListener(_searchIndex);
+    dModel = (BFilterTableModel) _table.getModel();
+    dModel.addTableModelListener(new SearchIndexUpdater());
+    indexAll(dModel);
+    return _searchIndex;
+  }
+
+  /**
+   * Indexes all the entries of the model in the background. Filters may have
+   * to be read to do so; lazy entries do not keep them.
+   */
+  private void indexAll(BFilterTableModel dModel){
+    final List<BFilterEntry> entries;
+    int                      i;
+
+    _searchIndexReady = false;
+    entries = new ArrayList<BFilterEntry>(dModel.getRowCount());
+    for(i=0;i<dModel.getRowCount();i++){
+      entries.add(dModel.getEntry(i));
+    }
+    new SwingWorker<Void, Void>(){
+      protected Void doInBackground() throws Exception {
+        _searchIndex.addAll(entries);
+        return null;
+      }
+      protected void done(){
+        _searchIndexReady = true;
+        applySearch();
+      }
+    }.execute();
+  }
+
+  /**
+   * Filters the rows of the table using the content of the search field.
+   */
+  private void applySearch(){
+    BFilterSearchIndex index;
+
+    index = getSearchIndex();
+    if (!_searchIndexReady)
+      return;
+    _sorter.setRowFilter(index.createRowFilter(_searchField.getText()));
+  }
+
+  private class SearchFieldListener implements DocumentListener {
+    public void insertUpdate(DocumentEvent e) {
+      applySearch();
+    }
+    public void removeUpdate(DocumentEvent e) {
+      applySearch();
+    }
+    public void changedUpdate(DocumentEvent e) {
+    }
+  }
+
+  private class SearchIndexUpdater implements TableModelListener {
+    public void tableChanged(TableModelEvent e) {
+      BFilterTableModel dModel;
+      int               i, last;
+
+      dModel = (BFilterTableModel) e.getSource();
+      if (e instanceof BFilterTableModelEvent 
+          && ((BFilterTableModelEvent) e).getDeletedEntries()!=null){
+        //remaining entries are unchanged
+        _searchIndex.removeAll(((BFilterTableModelEvent) e).getDeletedEntries());
+        return;
+      }
+      if (e.getFirstRow()==TableModelEvent.HEADER_ROW || e.getLastRow()==Integer.MAX_VALUE){
+        indexAll(dModel);
+        return;
+      }
+      if (e.getType()==TableModelEvent.DELETE)
+        return;
+      last = Math.min(e.getLastRow(), dModel.getRowCount()-1);
+      for(i=e.getFirstRow();i<=last;i++){
+        _searchIndex.update(dModel.getEntry(i));
+      }
+    }
+  }
+
+  private void reassignRowHeight(){
+    if (_table==null)
+      return;
+    _table.updateAllRowHeights();
+  }
+  /**
+   * Computes the width of the columns that are not resized with the table.
+   * Header widths are measured once per font.
+   */
+  private void initFixedColumnSizes(){
     FontMetrics      fm;
     TableColumnModel tcm;
-    TableColumn      tc, lastTc=null;
+    TableColumn      tc;
     String           header, largestHeader;
-    int              i, size, tot, val;
+    int              i, size, val;
 
     fm = _table.getFontMetrics(_table.getFont());
     tcm = _table.getColumnModel();
     size = tcm.getColumnCount();
-    tot=0;
+    _columnCount = size;
+    _fixedWidth = 0;
+    _flexColumn = -1;
     
     // largest header column is Description...
     largestHeader = BFilterTableHeader.FILTER_DESCRIPTION_HEADER.getLabel();
@@ -783,24 +1302,48 @@ public class BFilterTable extends JPanel {
                 specifying which column has a locked size.
                 tc.setMinWidth(val);
                 tc.setMaxWidth(val);*/
-        tot+=val;
+        _fixedWidth+=val;
       }
       else{
-        lastTc=tc;
+        _flexColumn = i;
       }
     }
-    if (lastTc!=null){
-      lastTc.setPreferredWidth(width-tot-2);
+    _columnFont = _table.getFont();
+  }
+  private void initColumnSize(int width){
+    TableColumnModel tcm;
+    TableColumn      tc;
+    int              val;
+
+    tcm = _table.getColumnModel();
+    if (_columnCount!=tcm.getColumnCount() || !_table.getFont().equals(_columnFont)){
+      initFixedColumnSizes();
+    }
+    if (_flexColumn==-1)
+      return;
+    // only the largest column follows the width of the table
+    tc = tcm.getColumn(_flexColumn);
+    val = width-_fixedWidth-2;
+    if (tc.getPreferredWidth()!=val){
+      tc.setPreferredWidth(val);
     }
   }
-  private class TableComponentAdapter extends ComponentAdapter{
+  private class TableComponentAdapter extends ComponentAdapter implements ActionListener{
     public void componentResized(ComponentEvent e){
-      Component parent;
-
-      int   width;
-      parent = (Component) e.getSource();
-      width = parent.getBounds().width;
-      initColumnSize(width);
+      if (_columnCount==-1){
+        //first layout: no need to wait
+        initColumnSize(getWidth());
+        return;
+      }
+      //live resizing: the layout is updated once the size is stable
+      if (_columnLayoutTimer==null){
+        _columnLayoutTimer = new Timer(COLUMN_LAYOUT_DELAY, this);
+        _columnLayoutTimer.setRepeats(false);
+      }
+      _columnLayoutTimer.restart();
+    }
+    public void actionPerformed(ActionEvent e){
+      initColumnSize(getWidth());
     }
   }
 }
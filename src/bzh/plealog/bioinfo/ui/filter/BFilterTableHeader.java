@@ -3,19 +3,21 @@ package bzh.plealog.bioinfo.ui.filter;
 import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
 
 public enum BFilterTableHeader {
-  FILTER_CHECK(             0, "-"                                              , Boolean.class),
-  FILTER_NAME_HEADER(       1, FilterMessages.getString("BFilterTable.column.1"), Integer.class),
-  FILTER_DESCRIPTION_HEADER(2, FilterMessages.getString("BFilterTable.column.2"), String.class ),
-  FILTER_RULE(              3, FilterMessages.getString("BFilterTable.column.3"), String.class );
+  FILTER_CHECK(             0, "-"                                              , Boolean.class,            false),
+  FILTER_NAME_HEADER(       1, FilterMessages.getString("BFilterTable.column.1"), Integer.class,            true ),
+  FILTER_DESCRIPTION_HEADER(2, FilterMessages.getString("BFilterTable.column.2"), String.class,             true ),
+  FILTER_RULE(              3, FilterMessages.getString("BFilterTable.column.3"), BFilterRuleSummary.class, true );
   
   private final int id;
   private final String label;
   private final Class<?> clazz;
+  private final boolean sortable;
   
-  BFilterTableHeader(int id, String lbl, Class<?> clazz){
+  BFilterTableHeader(int id, String lbl, Class<?> clazz, boolean sortable){
     this.id = id;
     this.label = lbl;
     this.clazz = clazz;
+    this.sortable = sortable;
   }
   
   public int getID(){
@@ -29,4 +31,11 @@ public enum BFilterTableHeader {
   public Class<?> getClazz(){
     return clazz;
   }
+  
+  /**
+   * Figures out whether or not a BFilterTable can be sorted using this column.
+   */
+  public boolean isSortable(){
+    return sortable;
+  }
 }
@@ -17,14 +17,22 @@
 package bzh.plealog.bioinfo.ui.filter;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.table.AbstractTableModel;
 
-import bzh.plealog.bioinfo.api.filter.BFilter;
 
 /**
  * This class handles the data model of BFilterTable.
  * 
+ * When the BFilter of an entry is replaced, call updateFilter() or 
+ * updateAll() to refresh the table. Lookups by alias are not handled here:
+ * see BFilterRepository.
+ * 
  * @author Patrick G. Durand
  */
 public class BFilterTableModel extends AbstractTableModel {
@@ -32,13 +40,15 @@ public class BFilterTableModel extends AbstractTableModel {
 	private BFilterTableHeader[]     _columnIds;
 	private ArrayList<BFilterEntry>  _filters;
 
+	//above that number of ranges, removeAll() fires a single event
+	private static final int MAX_DELETE_EVENTS = 16;
+
 	public BFilterTableModel(){
-		_filters = new ArrayList<BFilterEntry>();
-		_columnIds = new BFilterTableHeader[]{
+		this(new BFilterTableHeader[]{
         BFilterTableHeader.FILTER_NAME_HEADER,
         BFilterTableHeader.FILTER_DESCRIPTION_HEADER,
         BFilterTableHeader.FILTER_RULE
-        };
+        });
 	}
 
   public BFilterTableModel(BFilterTableHeader[] columnModel){
@@ -47,18 +57,188 @@ public class BFilterTableModel extends AbstractTableModel {
   }
 
   public void addFilter(BFilterEntry filter){
-		_filters.add(filter);
-		this.fireTableDataChanged();
+		int row;
+
+		synchronized(this){
+			row = _filters.size();
+			_filters.add(filter);
+		}
+		this.fireTableRowsInserted(row, row);
 	}
 
 	public void removeFilter(BFilterEntry filter){
-		_filters.remove(filter);
+		int row;
+
+		synchronized(this){
+			row = _filters.indexOf(filter);
+			if (row==-1)
+				return;
+			_filters.remove(row);
+		}
+		this.fireTableChanged(new BFilterTableModelEvent(this, row, row, 
+				BFilterTableModelEvent.TYPE.TYPE_ROWS_DELETED, Collections.singletonList(filter)));
+	}
+
+	/**
+	 * Replaces an entry by another one at the same row.
+	 */
+	public void replaceFilter(BFilterEntry oldEntry, BFilterEntry newEntry){
+		int row;
+
+		synchronized(this){
+			row = _filters.indexOf(oldEntry);
+			if (row==-1)
+				return;
+			_filters.set(row, newEntry);
+		}
+		this.fireTableRowsUpdated(row, row);
+	}
+
+	/**
+	 * Replaces all the entries of the model. Fires a single data changed
+	 * event.
+	 */
+	public void replaceAll(List<BFilterEntry> entries){
+		synchronized(this){
+			_filters = new ArrayList<BFilterEntry>(entries);
+		}
 		this.fireTableDataChanged();
 	}
 
+	/**
+	 * Notifies the model that an entry has been modified, e.g. its BFilter
+	 * has been replaced.
+	 */
+	public void updateFilter(BFilterEntry filter){
+		int row;
+
+		row = _filters.indexOf(filter);
+		if (row==-1)
+			return;
+		this.fireTableRowsUpdated(row, row);
+	}
+
+	/**
+	 * Adds several entries at the end of the model. Fires a single rows
+	 * inserted event.
+	 */
+	public void addAll(List<BFilterEntry> entries){
+		int first;
+
+		if (entries==null || entries.isEmpty())
+			return;
+		synchronized(this){
+			first = _filters.size();
+			_filters.addAll(entries);
+		}
+		this.fireTableRowsInserted(first, _filters.size()-1);
+	}
+
+	/**
+	 * Removes several entries from the model. When the removed rows form a few
+	 * ranges of contiguous rows, one rows deleted event is fired per range, 
+	 * starting from the last one, so that the selection of the remaining rows 
+	 * is preserved. Otherwise, a single BFilterTableModelEvent of type 
+	 * TYPE_FILTERS_DELETED is fired; it notifies that all rows have changed
+	 * and gives the ranges of deleted rows, so that listeners can convert
+	 * the indices of the remaining rows.
+	 */
+	public void removeAll(Collection<BFilterEntry> entries){
+		ArrayList<BFilterEntry>             kept, removed;
+		ArrayList<int[]>                    ranges;
+		List<BFilterEntry>                  rows;
+		Map<BFilterEntry, BFilterEntry>     toRemove;
+		BFilterEntry                        entry;
+		int                                 i, size, first;
+
+		if (entries==null || entries.isEmpty())
+			return;
+		toRemove = new IdentityHashMap<BFilterEntry, BFilterEntry>();
+		for(BFilterEntry e : entries){
+			toRemove.put(e, e);
+		}
+		ranges = new ArrayList<int[]>();
+		synchronized(this){
+			size = _filters.size();
+			kept = new ArrayList<BFilterEntry>(size);
+			removed = new ArrayList<BFilterEntry>(toRemove.size());
+			first = -1;
+			for(i=0;i<size;i++){
+				entry = _filters.get(i);
+				if (toRemove.containsKey(entry)){
+					removed.add(entry);
+					if (first==-1)
+						first = i;
+				}
+				else{
+					kept.add(entry);
+					if (first!=-1){
+						ranges.add(new int[]{first, i-1});
+						first = -1;
+					}
+				}
+			}
+			if (first!=-1)
+				ranges.add(new int[]{first, size-1});
+			if (ranges.isEmpty())
+				return;
+			if (ranges.size()>MAX_DELETE_EVENTS)
+				_filters = kept;
+		}
+		if (ranges.size()>MAX_DELETE_EVENTS){
+			//each event costs a pass over all the rows for the listeners
+			this.fireTableChanged(new BFilterTableModelEvent(this, BFilterTableModelEvent.TYPE.TYPE_FILTERS_DELETED, 
+					ranges, removed));
+			return;
+		}
+		for(i=ranges.size()-1;i>=0;i--){
+			//listeners expect the model to be updated range by range
+			synchronized(this){
+				rows = _filters.subList(ranges.get(i)[0], ranges.get(i)[1]+1);
+				removed = new ArrayList<BFilterEntry>(rows);
+				rows.clear();
+			}
+			this.fireTableChanged(new BFilterTableModelEvent(this, ranges.get(i)[0], ranges.get(i)[1], 
+					BFilterTableModelEvent.TYPE.TYPE_ROWS_DELETED, removed));
+		}
+	}
+
+	/**
+	 * Notifies the model that some entries have been modified. Fires a single
+	 * rows updated event covering all these entries.
+	 */
+	public void updateAll(Collection<BFilterEntry> entries){
+		Map<BFilterEntry, BFilterEntry> updated;
+		int                             i, size, first, last;
+
+		if (entries==null || entries.isEmpty())
+			return;
+		updated = new IdentityHashMap<BFilterEntry, BFilterEntry>();
+		for(BFilterEntry e : entries){
+			updated.put(e, e);
+		}
+		size = _filters.size();
+		first = last = -1;
+		for(i=0;i<size;i++){
+			if (updated.containsKey(_filters.get(i))){
+				if (first==-1)
+					first = i;
+				last = i;
+			}
+		}
+		if (first!=-1)
+			this.fireTableRowsUpdated(first, last);
+	}
+
 	public String getColumnName(int column){
 		return _columnIds[column].getLabel();
 	}
+	/**
+	 * Returns the header of a column.
+	 */
+	public BFilterTableHeader getColumnHeader(int column){
+		return _columnIds[column];
+	}
 
 	public BFilterEntry getEntry(int row){
 	  return _filters.get(row);
@@ -89,23 +269,25 @@ public class BFilterTableModel extends AbstractTableModel {
   }
   
 	public Object getValueAt(int row, int col) {
-		BFilterEntry entry;
-		BFilter      filter;
-		Object       val = "?";
+		BFilterEntry       entry;
+		BFilterRuleSummary summary;
+		Object             val = "?";
 
 		entry = (BFilterEntry) _filters.get(row);
 		if (col==-1)
 			return entry;
-		filter = entry.getFilter();
 		switch(_columnIds[col]){
 		case FILTER_NAME_HEADER:
-			val = filter.getName();
+			val = entry.getName();
 			break;
 		case FILTER_DESCRIPTION_HEADER:
-			val = filter.getDescription();
+			val = entry.getDescription();
 			break;
 		case FILTER_RULE:
-			val = filter.getHtmlString();
+			//only this column requires the BFilter to be loaded
+			summary = entry.getRuleSummary();
+			if (summary!=null)
+				val = summary;
 			break;
 		case FILTER_CHECK:
 		  val = entry.isSelected();
@@ -1,5 +1,7 @@
 package bzh.plealog.bioinfo.ui.filter;
 
+import java.util.List;
+
 import javax.swing.event.TableModelEvent;
 import javax.swing.table.TableModel;
 
@@ -7,16 +9,93 @@ public class BFilterTableModelEvent extends TableModelEvent {
 
   private static final long serialVersionUID = 2528527163628548388L;
 
-  public static enum TYPE { TYPE_FILTER_CHECKED }
+  public static enum TYPE { TYPE_FILTER_CHECKED, TYPE_FILTERS_DELETED, TYPE_ROWS_DELETED }
   
   private TYPE type;
+  //TYPE_FILTERS_DELETED and TYPE_ROWS_DELETED: the deleted entries
+  private List<BFilterEntry> entries;
+  //TYPE_FILTERS_DELETED: ranges of deleted rows, and number of rows deleted
+  //before the end of each range
+  private int[][] ranges;
+  private int[]   deletedCounts;
   
   public BFilterTableModelEvent(TableModel source, int row, int column, TYPE type) {
     super(source, row, row, column);
     this.type = type;
   }
 
+  /**
+   * Creates an event notifying that a range of rows has been deleted.
+   * 
+   * @param entries the deleted entries
+   */
+  public BFilterTableModelEvent(TableModel source, int firstRow, int lastRow, TYPE type, 
+      List<BFilterEntry> entries) {
+    super(source, firstRow, lastRow, ALL_COLUMNS, DELETE);
+    this.type = type;
+    this.entries = entries;
+  }
+
+  /**
+   * Creates an event notifying that all rows may have changed, since
+   * several ranges of rows have been deleted.
+   * 
+   * @param ranges the first and last indices of each range of deleted rows,
+   * in ascending order. Indices are the ones before the deletion.
+   * @param entries the deleted entries
+   */
+  public BFilterTableModelEvent(TableModel source, TYPE type, List<int[]> ranges, 
+      List<BFilterEntry> entries) {
+    super(source);
+    int i, count;
+    
+    this.type = type;
+    this.entries = entries;
+    this.ranges = ranges.toArray(new int[ranges.size()][]);
+    this.deletedCounts = new int[this.ranges.length];
+    count = 0;
+    for(i=0;i<this.ranges.length;i++){
+      count += this.ranges[i][1]-this.ranges[i][0]+1;
+      this.deletedCounts[i] = count;
+    }
+  }
+
+  /**
+   * Converts the index a row had before the deletion to its current index.
+   * Returns -1 if the row has been deleted, or if this event does not
+   * report a deletion.
+   */
+  public int convertRowIndex(int row){
+    int low, high, mid;
+    
+    if (ranges==null)
+      return -1;
+    //locate the last range starting at or before row
+    low = 0;
+    high = ranges.length-1;
+    while(low<=high){
+      mid = (low+high) >>> 1;
+      if (ranges[mid][0]<=row)
+        low = mid+1;
+      else
+        high = mid-1;
+    }
+    if (high==-1)
+      return row;
+    if (row<=ranges[high][1])
+      return -1;
+    return row-deletedCounts[high];
+  }
+
   public TYPE getEventType(){
     return type;
   }
+
+  /**
+   * Returns the deleted entries. Returns null if this event does not 
+   * report a deletion.
+   */
+  public List<BFilterEntry> getDeletedEntries(){
+    return entries;
+  }
 }
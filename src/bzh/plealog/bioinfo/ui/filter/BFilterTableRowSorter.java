@@ -0,0 +1,133 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.util.Comparator;
+
+import javax.swing.DefaultRowSorter;
+
+/**
+ * This is the RowSorter of a BFilterTable. Columns are sorted according to
+ * their BFilterTableHeader: names and descriptions are compared using the
+ * collation keys cached by each BFilterEntry, and rules are compared using
+ * their number. So, sorting never rebuilds the strings displayed in the
+ * table nor loads the BFilters.
+ * 
+ * Entries that compare equal keep their model order, and inserted rows are
+ * placed in the sorted view without sorting again the whole table.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BFilterTableRowSorter extends DefaultRowSorter<BFilterTableModel, Integer> {
+
+  private static final Comparator<BFilterEntry> NAME_COMPARATOR = new Comparator<BFilterEntry>() {
+    public int compare(BFilterEntry o1, BFilterEntry o2) {
+      return o1.getNameKey().compareTo(o2.getNameKey());
+    }
+  };
+  private static final Comparator<BFilterEntry> DESCRIPTION_COMPARATOR = new Comparator<BFilterEntry>() {
+    public int compare(BFilterEntry o1, BFilterEntry o2) {
+      return o1.getDescriptionKey().compareTo(o2.getDescriptionKey());
+    }
+  };
+  private static final Comparator<BFilterEntry> RULE_COMPARATOR = new Comparator<BFilterEntry>() {
+    public int compare(BFilterEntry o1, BFilterEntry o2) {
+      return Integer.compare(o1.getRuleCount(), o2.getRuleCount());
+    }
+  };
+
+  /**
+   * Constructor.
+   * 
+   * @param model the model to sort
+   */
+  public BFilterTableRowSorter(BFilterTableModel model){
+    setModelWrapper(new EntryModelWrapper(model));
+    //an edited filter may have a new name
+    setSortsOnUpdates(true);
+  }
+
+  /**
+   * Returns the comparator of a column. Values passed to the comparator are
+   * BFilterEntry instances. Returns null for columns that cannot be sorted.
+   */
+  @Override
+  public Comparator<?> getComparator(int column) {
+    switch(getModel().getColumnHeader(column)){
+    case FILTER_NAME_HEADER:
+      return NAME_COMPARATOR;
+    case FILTER_DESCRIPTION_HEADER:
+      return DESCRIPTION_COMPARATOR;
+    case FILTER_RULE:
+      return RULE_COMPARATOR;
+    default:
+      return null;
+    }
+  }
+
+  @Override
+  public boolean isSortable(int column) {
+    return getModel().getColumnHeader(column).isSortable();
+  }
+
+  @Override
+  protected boolean useToString(int column) {
+    return false;
+  }
+
+  /**
+   * Provides the sorter with the entries of the model instead of the values
+   * displayed in the table.
+   */
+  private static class EntryModelWrapper extends ModelWrapper<BFilterTableModel, Integer> {
+    private BFilterTableModel _model;
+
+    private EntryModelWrapper(BFilterTableModel model){
+      _model = model;
+    }
+
+    @Override
+    public BFilterTableModel getModel() {
+      return _model;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return _model.getColumnCount();
+    }
+
+    @Override
+    public int getRowCount() {
+      return _model.getRowCount();
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      return _model.getEntry(row);
+    }
+
+    @Override
+    public String getStringValueAt(int row, int column) {
+      return String.valueOf(_model.getValueAt(row, column));
+    }
+
+    @Override
+    public Integer getIdentifier(int row) {
+      return row;
+    }
+  }
+}
@@ -22,11 +22,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
+import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 
@@ -42,6 +40,7 @@ import bzh.plealog.bioinfo.api.filter.BDataAccessors;
 import bzh.plealog.bioinfo.api.filter.BRule;
 import bzh.plealog.bioinfo.api.filter.BRuleException;
 import bzh.plealog.bioinfo.api.filter.BRuleFactory;
+import bzh.plealog.bioinfo.filter.set.BFileValueSet;
 import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
 import bzh.plealog.hge.api.datamodel.DGMAttribute;
 
@@ -63,10 +62,12 @@ public class BRuleEditor extends JPanel {
   private JCheckBox        _caseBox;
   private JTextArea        _helpArea;
   private BDataAccessors   _filterModel;
+  private BAccessorCatalog _catalog;
   private BRuleFactory     _ruleFactory;
 
   private static final Font CBX_FNT = new Font("Arial", Font.PLAIN, 10);
   private static final MessageFormat CS_FORM = new MessageFormat("(?i)({0})");
+  private static final String CS_PREFIX = "(?i)(";
 
   public BRuleEditor(BDataAccessors fModel, BRuleFactory ruleFactory){
     this(fModel, ruleFactory, null, null);
@@ -74,6 +75,7 @@ public class BRuleEditor extends JPanel {
 
   public BRuleEditor(BDataAccessors fModel, BRuleFactory ruleFactory, JButton add, JButton remove){
     _filterModel = fModel;
+    _catalog = BAccessorCatalog.getCatalog(fModel);
     _ruleFactory = ruleFactory;
     createGUI(add, remove);
   }
@@ -84,32 +86,65 @@ public class BRuleEditor extends JPanel {
    * Returns a valid BRule given the parameters entered by the users.
    */
   public BRule getRule() throws BRuleException {
-    BAccessorEntry entry;
-    String         accName, ope, value;
+    return createRule(_filterModel, _ruleFactory, (BAccessorEntry) _accessors.getSelectedItem(), 
+        (String) _operators.getSelectedItem(), _value.getText(), _caseBox.isSelected());
+  }
+
+  /**
+   * Returns a valid BRule given some parameters entered by the users.
+   * 
+   * @param fModel the data model
+   * @param ruleFactory the factory used to create the rule
+   * @param entry the accessor
+   * @param opeLabel the label of the operator, as displayed to the user
+   * @param value the value, as entered by the user
+   * @param caseSensitive only used with accessors allowing case sensitive
+   * string comparison
+   * 
+   * @throws BRuleException if one of the parameters is not valid
+   */
+  public static BRule createRule(BDataAccessors fModel, BRuleFactory ruleFactory, BAccessorEntry entry, 
+      String opeLabel, String value, boolean caseSensitive) throws BRuleException {
+    BFileValueSet  valueSet;
+    String         accName, ope;
     Object         oValue;
 
     //get accessor
-    entry = (BAccessorEntry) _accessors.getSelectedItem();
     if (entry == null)
       throw new BRuleException(FilterMessages.getString("BRuleEditor.err.1"));
     accName = entry.getAccessorVisibleName();
 
     //get operator
-    ope = (String) _operators.getSelectedItem();
+    if (opeLabel == null)
+      throw new BRuleException(FilterMessages.getString("BRuleEditor.err.2"));
+    ope = BAccessorCatalog.getOperatorForText(fModel, opeLabel);
     if (ope == null)
       throw new BRuleException(FilterMessages.getString("BRuleEditor.err.2"));
-    ope = (String) _filterModel.getOperatorForText(ope);
 
     //get value
-    value = _value.getText();
     if (value == null || value.length()==0)
       throw new BRuleException(FilterMessages.getString("BRuleEditor.err.3"));
     value = value.trim();
 
+    //special case: values listed in a file
+    if (BFileValueSet.isSetOperator(ope)){
+      if (!BFileValueSet.isSupported(entry))
+        throw new BRuleException(FilterMessages.getString("BRuleEditor.err.8"));
+      valueSet = new BFileValueSet(value);
+      try {
+        valueSet.load();
+      } catch (IOException e) {
+        throw new BRuleException(FilterMessages.getString("BRuleEditor.err.7")+": "+value);
+      }
+      return (ruleFactory.createRule(accName, ope, valueSet));
+    }
+
     //special case: case sensitive combo box
-    if (entry.getDataType()==DGMAttribute.DT_STRING && entry.isAllowCaseSensitive()){
-      if (!_caseBox.isSelected()){
-        value = CS_FORM.format(new Object[]{value});
+    if (isCaseSensitiveAllowed(entry)){
+      if (!caseSensitive){
+        synchronized(CS_FORM){
+          value = CS_FORM.format(new Object[]{value});
+        }
       }
     }
     //check value
@@ -130,7 +165,113 @@ public class BRuleEditor extends JPanel {
     }
 
     //everything seems ok!
-    return (_ruleFactory.createRule(accName, ope, oValue));
+    return (ruleFactory.createRule(accName, ope, oValue));
+  }
+
+  /**
+   * Figures out whether or not the user can choose between case sensitive
+   * and case insensitive comparison for a particular accessor.
+   */
+  public static boolean isCaseSensitiveAllowed(BAccessorEntry entry){
+    return entry.getDataType()==DGMAttribute.DT_STRING && entry.isAllowCaseSensitive();
+  }
+
+  /**
+   * Returns the value of a rule as it has to be displayed to the user. For
+   * case insensitive comparison, the regular expression wrapping the value is
+   * removed; see isCaseSensitive().
+   */
+  public static String getValueText(Object value){
+    StringBuffer buf;
+    String       lbl;
+
+    if (value instanceof BFileValueSet){//values listed in a file
+      return ((BFileValueSet) value).getPath();
+    }
+    else if (value instanceof Collection == false){//basic type
+      lbl = value.toString().trim();
+      if (lbl.startsWith(CS_PREFIX)){
+        lbl = lbl.substring(CS_PREFIX.length(), lbl.length()-1);
+      }
+      return lbl;
+    }
+    else{//Collections: List or Set
+      buf = new StringBuffer();
+      Iterator<?> iter = ((Collection<?>)value).iterator();
+      while(iter.hasNext()){
+        buf.append(iter.next().toString());
+        if (iter.hasNext()){
+          buf.append(";");
+        }
+      }
+      return buf.toString();
+    }
+  }
+
+  /**
+   * Figures out whether or not the value of a rule is a case sensitive one.
+   */
+  public static boolean isCaseSensitive(Object value){
+    return value instanceof Collection || !value.toString().trim().startsWith(CS_PREFIX);
+  }
+
+  /**
+   * Returns a tip explaining the type of value expected by an accessor. May
+   * return null.
+   */
+  public static String getDataTypeTip(BAccessorEntry entry){
+    String dType;
+
+    switch(entry.getDataType()){
+      case DGMAttribute.DT_DOUBLE:
+        dType = FilterMessages.getString("BRuleEditor.tipType.double");
+        break;
+      case DGMAttribute.DT_LONG:
+        dType = FilterMessages.getString("BRuleEditor.tipType.int");
+        break;
+      case DGMAttribute.DT_BOOLEAN:
+        dType = FilterMessages.getString("BRuleEditor.tipType.boolean");
+        break;
+      case DGMAttribute.DT_CHARACTER:
+        dType = FilterMessages.getString("BRuleEditor.tipType.char");
+        break;
+      case DGMAttribute.DT_STRING:
+        dType = FilterMessages.getString("BRuleEditor.tipType.string");
+        break;
+      case DGMAttribute.DT_DATE:
+        dType = FilterMessages.getString("BRuleEditor.tipType.date");
+        break;
+      default:
+        dType = null;
+        break;
+    }
+    return dType;
+  }
+
+  /**
+   * Returns the help message of an accessor, completed with the help of an
+   * operator if needed. Never returns null.
+   * 
+   * @param opeLabel the label of the operator, as displayed to the user. May
+   * be null.
+   */
+  public static String getHelpMessage(BDataAccessors fModel, BAccessorEntry entry, String opeLabel){
+    String hlpMsg, ope;
+
+    hlpMsg = entry.getHelpMsg()!=null?entry.getHelpMsg():"";
+    if (opeLabel!=null){
+      ope = BAccessorCatalog.getOperatorForText(fModel, opeLabel);
+      if (ope!=null && (ope.equals(BDataAccessors.OPE_InRangeExclusive)||
+          ope.equals(BDataAccessors.OPE_InRangeInclusive))){
+        hlpMsg +=" ";
+        hlpMsg +=BDataAccessors.InRangeHlpMsg;
+      }
+      else if (BFileValueSet.isSetOperator(ope)){
+        hlpMsg +=" ";
+        hlpMsg +=FilterMessages.getString("BRuleEditor.tipType.file")+".";
+      }
+    }
+    return hlpMsg;
   }
 
   /**
@@ -148,7 +289,6 @@ public class BRuleEditor extends JPanel {
   public void setValues(String accVisibleName, String ope, Object value){
     BAccessorEntry entry;
     String         lbl;
-    StringBuffer   buf;
 
     if (accVisibleName==null || ope==null || value==null)
       return;
@@ -157,31 +297,13 @@ public class BRuleEditor extends JPanel {
     if (entry==null)
       return;
     _accessors.setSelectedItem(entry);
-    lbl = (String) _filterModel.getTextForOperator(ope);
+    lbl = BAccessorCatalog.getOperatorText(_filterModel, ope);
     if (lbl!=null)
       _operators.setSelectedItem(lbl);
     if (value instanceof Collection == false){//basic type
-      lbl = value.toString().trim();
-      if (lbl.startsWith("(?i)(")){
-        lbl = lbl.substring(5, lbl.length()-1);
-        _caseBox.setSelected(false);
-      }
-      else{
-        _caseBox.setSelected(true);
-      }
-      _value.setText(lbl);
-    }
-    else{//Collections: List or Set
-      buf = new StringBuffer();
-      Iterator<?> iter = ((Collection<?>)value).iterator();
-      while(iter.hasNext()){
-        buf.append(iter.next().toString());
-        if (iter.hasNext()){
-          buf.append(";");
-        }
-      }
-      _value.setText(buf.toString());
+      _caseBox.setSelected(isCaseSensitive(value));
     }
+    _value.setText(getValueText(value));
   }
 
   /**
@@ -197,52 +319,25 @@ public class BRuleEditor extends JPanel {
     return tf;
   }
   /**
-   * Helper method to fill in the combo box displaying the BAccessors.
+   * Helper method to fill in the combo box displaying the BAccessors. The
+   * combo box shares the content of the accessor catalog.
    */
   private void fillAccessorsCombo(JComboBox<BAccessorEntry> combo){
-    Enumeration<String> myEnum;
-    ArrayList<String>   accs;
-    int                 i, size;
-
-    accs = new ArrayList<String>();
-    myEnum = _filterModel.getAccessorVisibleNames();
-    while(myEnum.hasMoreElements()){
-      accs.add(myEnum.nextElement());
-    }
-
-    Collections.sort(accs);
-    size = accs.size();
-    for(i=0;i<size;i++){
-      combo.addItem(_filterModel.getAccessorEntry(accs.get(i)));
-    }
+    combo.setModel(_catalog.createAccessorModel());
   }
 
   /**
    * Helper method to fill in a the combo box displaying the valid operators
-   * for a particular BAccessorEntry.
+   * for a particular BAccessorEntry. Operator labels are taken from the
+   * accessor catalog.
    */
   private void fillOperatorCombo(JComboBox<String> combo, BAccessorEntry baEntry){
-    String[]    opes;
-    String      lbl;
-    int         i, size;
-
-    if (combo.getItemCount()!=0)
-      combo.removeAllItems();
+    combo.setModel(_catalog.createOperatorModel(baEntry));
     if (baEntry==null || baEntry.getOperators()==null || baEntry.getOperators().length==0){
       return;
     }
-    opes = baEntry.getOperators();
-    size = opes.length;
-    for(i=0;i<size;i++){
-      lbl = (String) _filterModel.getTextForOperator(opes[i]);
-      if (lbl!=null)
-        combo.addItem(lbl);
-    }
 
-    _caseBox.setVisible(
-        baEntry.getDataType()==DGMAttribute.DT_STRING
-        &&
-        baEntry.isAllowCaseSensitive());
+    _caseBox.setVisible(isCaseSensitiveAllowed(baEntry));
   }
 
   /**
@@ -310,29 +405,7 @@ public class BRuleEditor extends JPanel {
       if (entry==null)
         return;
       fillOperatorCombo(_opeCombo, entry);
-      switch(entry.getDataType()){
-        case DGMAttribute.DT_DOUBLE:
-          dType = FilterMessages.getString("BRuleEditor.tipType.double");
-          break;
-        case DGMAttribute.DT_LONG:
-          dType = FilterMessages.getString("BRuleEditor.tipType.int");
-          break;
-        case DGMAttribute.DT_BOOLEAN:
-          dType = FilterMessages.getString("BRuleEditor.tipType.boolean");
-          break;
-        case DGMAttribute.DT_CHARACTER:
-          dType = FilterMessages.getString("BRuleEditor.tipType.char");
-          break;
-        case DGMAttribute.DT_STRING:
-          dType = FilterMessages.getString("BRuleEditor.tipType.string");
-          break;
-        case DGMAttribute.DT_DATE:
-          dType = FilterMessages.getString("BRuleEditor.tipType.date");
-          break;
-        default:
-          dType = null;
-          break;
-      }
+      dType = getDataTypeTip(entry);
       if (_helpArea!=null){
         _helpArea.setText(entry.getHelpMsg()!=null?entry.getHelpMsg():"");
       }
@@ -343,7 +416,6 @@ public class BRuleEditor extends JPanel {
   private class HelpFocusListener implements FocusListener{
     public void focusGained(FocusEvent e){
       BAccessorEntry entry = (BAccessorEntry) _accessors.getSelectedItem();
-      String         hlpMsg, ope;
 
       if (_helpArea==null)
         return;
@@ -351,17 +423,7 @@ public class BRuleEditor extends JPanel {
         _helpArea.setText("");
         return;
       }
-      hlpMsg = entry.getHelpMsg()!=null?entry.getHelpMsg():"";
-      ope = (String )_operators.getSelectedItem();
-      if (ope!=null){
-        ope = _filterModel.getOperatorForText(ope);
-        if (ope.equals(BDataAccessors.OPE_InRangeExclusive)||
-            ope.equals(BDataAccessors.OPE_InRangeInclusive)){
-          hlpMsg +=" ";
-          hlpMsg +=BDataAccessors.InRangeHlpMsg;
-        }
-      }
-      _helpArea.setText(hlpMsg);
+      _helpArea.setText(getHelpMessage(_filterModel, entry, (String )_operators.getSelectedItem()));
     }
     public void focusLost(FocusEvent e){
       if (_helpArea==null)
@@ -0,0 +1,428 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+
+import bzh.plealog.bioinfo.api.filter.BAccessorEntry;
+import bzh.plealog.bioinfo.api.filter.BDataAccessors;
+import bzh.plealog.bioinfo.api.filter.BRule;
+import bzh.plealog.bioinfo.api.filter.BRuleException;
+import bzh.plealog.bioinfo.api.filter.BRuleFactory;
+import bzh.plealog.bioinfo.filter.set.BFileValueSet;
+import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
+
+/**
+ * This is the model of the rule list of a BFilterEditor. Each row contains
+ * the rule parameters as entered by the user: accessor, operator label, value
+ * and case sensitivity.
+ * 
+ * Each row also keeps the result of its last validation: the BRule created
+ * from its parameters or an error message. Rows are validated by a
+ * BRuleValidator; a modified row is no longer validated until the validator
+ * has checked it again.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BRuleListModel extends AbstractTableModel {
+  private static final long serialVersionUID = 4307640787327101862L;
+  private ArrayList<RuleRow> _rows;
+  private BDataAccessors     _filterModel;
+  private BAccessorCatalog   _catalog;
+
+  public static final int ACCESSOR_COLUMN = 0;
+  public static final int OPERATOR_COLUMN = 1;
+  public static final int VALUE_COLUMN    = 2;
+  public static final int CASE_COLUMN     = 3;
+
+  private static final String[] COLUMN_NAMES = new String[]{
+    FilterMessages.getString("BRuleListModel.column.1"),
+    FilterMessages.getString("BRuleListModel.column.2"),
+    FilterMessages.getString("BRuleListModel.column.3"),
+    FilterMessages.getString("BRuleEditor.ui.cbox.1")
+  };
+
+  /**
+   * Constructor.
+   * 
+   * @param fModel the data model
+   */
+  public BRuleListModel(BDataAccessors fModel){
+    _filterModel = fModel;
+    _catalog = BAccessorCatalog.getCatalog(fModel);
+    _rows = new ArrayList<RuleRow>();
+  }
+
+  /**
+   * Returns the accessor catalog used by this model.
+   */
+  public BAccessorCatalog getCatalog(){
+    return _catalog;
+  }
+
+  /**
+   * Replaces the content of this model with some rules. The model is built in
+   * one pass and a single event is fired.
+   */
+  public void setRules(Iterator<BRule> rules){
+    _rows.clear();
+    addRules(rules);
+  }
+
+  /**
+   * Adds some rules at the end of this model. A single event is fired.
+   */
+  public void addRules(Iterator<BRule> rules){
+    while(rules.hasNext()){
+      _rows.add(createRow(rules.next()));
+    }
+    fireTableDataChanged();
+  }
+
+  /**
+   * Removes all the rules.
+   */
+  public void clear(){
+    _rows.clear();
+    fireTableDataChanged();
+  }
+
+  /**
+   * Inserts a new rule using the first accessor of the catalog.
+   * 
+   * @param row the index where to insert the rule
+   */
+  public void insertRule(int row){
+    RuleRow rRow;
+
+    rRow = new RuleRow();
+    if (_catalog.size()!=0){
+      setAccessor(rRow, _catalog.getEntry(0));
+    }
+    _rows.add(row, rRow);
+    fireTableRowsInserted(row, row);
+  }
+
+  /**
+   * Removes a rule.
+   */
+  public void removeRule(int row){
+    _rows.remove(row);
+    fireTableRowsDeleted(row, row);
+  }
+
+  /**
+   * Returns a valid BRule given the parameters of a row.
+   * 
+   * @throws BRuleException if the parameters are not valid
+   */
+  public BRule getRule(int row, BRuleFactory ruleFactory) throws BRuleException {
+    RuleRow rRow;
+
+    rRow = _rows.get(row);
+    //already done by the validator
+    if (rRow.validated && rRow.rule!=null){
+      //unlike a clone, does not list all the values of a file
+      return BFileValueSet.copyRule(ruleFactory, rRow.rule);
+    }
+    return BRuleEditor.createRule(_filterModel, ruleFactory, rRow.accessor, rRow.operator, 
+        rRow.value, rRow.caseSensitive);
+  }
+
+  /**
+   * Returns the error message of the last validation of a row. Returns null
+   * if the row was valid.
+   */
+  public String getError(int row){
+    return _rows.get(row).error;
+  }
+
+  /**
+   * Figures out whether a row has been validated since its last modification.
+   */
+  public boolean isValidated(int row){
+    return _rows.get(row).validated;
+  }
+
+  /**
+   * Returns the index of the first row found invalid by its last validation,
+   * or -1.
+   */
+  public int getInvalidRow(){
+    int i, size;
+
+    size = _rows.size();
+    for(i=0;i<size;i++){
+      if (_rows.get(i).error!=null)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the rows to validate.
+   * 
+   * @param all if false, rows already being validated are skipped
+   */
+  List<RuleCheck> getPendingChecks(boolean all){
+    ArrayList<RuleCheck> checks;
+
+    checks = new ArrayList<RuleCheck>();
+    for(RuleRow rRow : _rows){
+      if (rRow.validated || (!all && rRow.checkedStamp==rRow.stamp))
+        continue;
+      rRow.checkedStamp = rRow.stamp;
+      checks.add(new RuleCheck(_filterModel, rRow));
+    }
+    return checks;
+  }
+
+  /**
+   * Stores the result of some validations. Results of rows modified during
+   * the validation are discarded. Must be called from the EDT.
+   */
+  void applyChecks(List<RuleCheck> checks){
+    Map<RuleRow, Integer> index;
+    Integer               row;
+    int                   i, size, first, last;
+
+    size = _rows.size();
+    index = new IdentityHashMap<RuleRow, Integer>();
+    for(i=0;i<size;i++){
+      index.put(_rows.get(i), i);
+    }
+    first = Integer.MAX_VALUE;
+    last = -1;
+    for(RuleCheck check : checks){
+      row = index.get(check.row);
+      if (row==null || check.row.stamp!=check.stamp)
+        continue;
+      check.row.validated = true;
+      check.row.rule = check.rule;
+      check.row.error = check.error;
+      first = Math.min(first, row);
+      last = Math.max(last, row);
+    }
+    if (last!=-1)
+      fireTableRowsUpdated(first, last);
+  }
+
+  /**
+   * Returns the accessor of a row. May return null.
+   */
+  public BAccessorEntry getAccessor(int row){
+    return _rows.get(row).accessor;
+  }
+
+  /**
+   * Returns the operator label of a row. May return null.
+   */
+  public String getOperator(int row){
+    return _rows.get(row).operator;
+  }
+
+  private RuleRow createRow(BRule rule){
+    RuleRow rRow;
+    Object  value;
+
+    rRow = new RuleRow();
+    rRow.accessor = _filterModel.getAccessorEntry(rule.getAccessor());
+    rRow.operator = BAccessorCatalog.getOperatorText(_filterModel, rule.getOperator());
+    value = rule.getValue();
+    if (value!=null){
+      rRow.value = BRuleEditor.getValueText(value);
+      rRow.caseSensitive = BRuleEditor.isCaseSensitive(value);
+    }
+    return rRow;
+  }
+
+  /**
+   * Sets the accessor of a row. The operator is reset if it is not valid
+   * for the new accessor.
+   */
+  private void setAccessor(RuleRow rRow, BAccessorEntry entry){
+    int i, size;
+
+    rRow.accessor = entry;
+    rRow.modified();
+    size = _catalog.getOperatorCount(entry);
+    for(i=0;i<size;i++){
+      if (_catalog.getOperatorLabel(entry, i).equals(rRow.operator))
+        return;
+    }
+    rRow.operator = size!=0 ? _catalog.getOperatorLabel(entry, 0) : null;
+  }
+
+  @Override
+  public int getRowCount() {
+    return _rows.size();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return COLUMN_NAMES.length;
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    return COLUMN_NAMES[column];
+  }
+
+  @Override
+  public Class<?> getColumnClass(int column) {
+    switch(column){
+    case ACCESSOR_COLUMN:
+      return BAccessorEntry.class;
+    case CASE_COLUMN:
+      return Boolean.class;
+    default:
+      return String.class;
+    }
+  }
+
+  @Override
+  public boolean isCellEditable(int row, int column) {
+    BAccessorEntry entry;
+    RuleRow        rRow;
+
+    if (column!=CASE_COLUMN)
+      return true;
+    rRow = _rows.get(row);
+    entry = rRow.accessor;
+    if (entry==null || !BRuleEditor.isCaseSensitiveAllowed(entry))
+      return false;
+    //values of a file are always compared as is
+    return rRow.operator==null 
+        || !BFileValueSet.isSetOperator(BAccessorCatalog.getOperatorForText(_filterModel, rRow.operator));
+  }
+
+  @Override
+  public Object getValueAt(int row, int column) {
+    RuleRow rRow;
+
+    rRow = _rows.get(row);
+    switch(column){
+    case ACCESSOR_COLUMN:
+      return rRow.accessor;
+    case OPERATOR_COLUMN:
+      return rRow.operator;
+    case VALUE_COLUMN:
+      return rRow.value;
+    default:
+      //nothing to display if the accessor does not support it
+      return isCellEditable(row, column) ? rRow.caseSensitive : null;
+    }
+  }
+
+  @Override
+  public void setValueAt(Object aValue, int row, int column) {
+    RuleRow rRow;
+
+    rRow = _rows.get(row);
+    switch(column){
+    case ACCESSOR_COLUMN:
+      if (aValue==null || aValue==rRow.accessor)
+        return;
+      setAccessor(rRow, (BAccessorEntry) aValue);
+      break;
+    case OPERATOR_COLUMN:
+      rRow.operator = (String) aValue;
+      break;
+    case VALUE_COLUMN:
+      if (aValue!=null && aValue.equals(rRow.value))
+        return;
+      rRow.value = (String) aValue;
+      break;
+    default:
+      rRow.caseSensitive = Boolean.TRUE.equals(aValue);
+    }
+    rRow.modified();
+    fireTableRowsUpdated(row, row);
+  }
+
+  /**
+   * The parameters of a rule.
+   */
+  private static class RuleRow {
+    private BAccessorEntry accessor;
+    private String         operator;
+    private String         value = "";
+    private boolean        caseSensitive = true;
+    //incremented each time the parameters are modified
+    private int            stamp;
+    //stamp of the last validation request
+    private int            checkedStamp = -1;
+    private boolean        validated;
+    private BRule          rule;
+    private String         error;
+
+    private void modified(){
+      stamp++;
+      validated = false;
+      rule = null;
+    }
+  }
+
+  /**
+   * The validation of a row. The parameters of the row are copied, so that
+   * the validation can run outside the EDT.
+   */
+  static class RuleCheck {
+    private BDataAccessors fModel;
+    private RuleRow        row;
+    private int            stamp;
+    private BAccessorEntry accessor;
+    private String         operator;
+    private String         value;
+    private boolean        caseSensitive;
+    private BRule          rule;
+    private String         error;
+
+    private RuleCheck(BDataAccessors fModel, RuleRow row){
+      this.fModel = fModel;
+      this.row = row;
+      stamp = row.stamp;
+      accessor = row.accessor;
+      operator = row.operator;
+      value = row.value;
+      caseSensitive = row.caseSensitive;
+    }
+
+    /**
+     * Creates the rule. Can be called from any thread.
+     */
+    void run(BRuleFactory ruleFactory){
+      try {
+        rule = BRuleEditor.createRule(fModel, ruleFactory, accessor, operator, value, caseSensitive);
+        error = null;
+      } catch (BRuleException e) {
+        rule = null;
+        error = e.getMessage();
+      } catch (RuntimeException e) {
+        //the accessor failed to parse the value
+        rule = null;
+        error = String.valueOf(e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.filter;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.apache.log4j.Logger;
+
+import bzh.plealog.bioinfo.api.filter.BRuleFactory;
+
+/**
+ * This class validates the rules of a BRuleListModel while the user edits
+ * them.
+ * 
+ * Validation starts once the model has not been modified for a while, and
+ * only the rows modified since their last validation are checked. Rules are
+ * created outside the EDT, then the results are stored in the model; results
+ * of rows modified in the meantime are discarded.
+ * 
+ * All methods of this class have to be called from the EDT.
+ * 
+ * @author Patrick G. Durand
+ */
+public class BRuleValidator implements TableModelListener, ActionListener {
+  private BRuleListModel                      _model;
+  private BRuleFactory                        _ruleFactory;
+  private Timer                               _timer;
+  private SwingWorker<List<BRuleListModel.RuleCheck>, Void> _worker;
+
+  /** validation starts when the model is quiet for that delay (ms) */
+  public static final int VALIDATION_DELAY = 300;
+
+  private static final Logger _logger = Logger.getLogger("kb."+"BRuleValidator");
+
+  /**
+   * Constructor.
+   * 
+   * @param model the model to validate
+   * @param ruleFactory the factory used to create the rules
+   */
+  public BRuleValidator(BRuleListModel model, BRuleFactory ruleFactory){
+    _model = model;
+    _ruleFactory = ruleFactory;
+    _timer = new Timer(VALIDATION_DELAY, this);
+    _timer.setRepeats(false);
+    _model.addTableModelListener(this);
+  }
+
+  /**
+   * Validates at once all the rows that are not validated yet. On return, 
+   * the model contains the validation result of all the rows.
+   */
+  public void flush(){
+    List<BRuleListModel.RuleCheck> checks;
+
+    _timer.stop();
+    //never validate rules from two threads at the same time
+    waitForWorker();
+    checks = _model.getPendingChecks(true);
+    for(BRuleListModel.RuleCheck check : checks){
+      check.run(_ruleFactory);
+    }
+    _model.applyChecks(checks);
+  }
+
+  private void waitForWorker(){
+    if (_worker==null)
+      return;
+    try {
+      _model.applyChecks(_worker.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      _logger.warn("rule validation failed: "+e.getCause());
+    }
+  }
+
+  /**
+   * Starts the validation of the modified rows in the background.
+   */
+  private void validateLater(){
+    final List<BRuleListModel.RuleCheck> checks;
+
+    //a new validation will be started once the current one is done
+    if (_worker!=null)
+      return;
+    checks = _model.getPendingChecks(false);
+    if (checks.isEmpty())
+      return;
+    _worker = new SwingWorker<List<BRuleListModel.RuleCheck>, Void>(){
+      @Override
+      protected List<BRuleListModel.RuleCheck> doInBackground() {
+        for(BRuleListModel.RuleCheck check : checks){
+          check.run(_ruleFactory);
+        }
+        return checks;
+      }
+      @Override
+      protected void done() {
+        _worker = null;
+        try {
+          _model.applyChecks(get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          _logger.warn("rule validation failed: "+e.getCause());
+        }
+        //rows modified during the validation
+        _timer.restart();
+      }
+    };
+    _worker.execute();
+  }
+
+  @Override
+  public void tableChanged(TableModelEvent e) {
+    _timer.restart();
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    validateLater();
+  }
+}
@@ -16,6 +16,8 @@
  */
 package bzh.plealog.bioinfo.ui.filter;
 
+import java.lang.ref.WeakReference;
+
 import bzh.plealog.bioinfo.api.filter.BDataAccessors;
 import bzh.plealog.bioinfo.api.filter.BFilter;
 import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
@@ -23,13 +25,16 @@ import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
 /**
  * This class defines some basic methods to easily starts the Filter Editor.
  * 
+ * The last editor and filter are weakly referenced: they are kept as long
+ * as the caller uses them. Call release() to forget them at once.
+ * 
  * @author Patrick G. Durand
  */
 public class ResultFilteringUtils {
 
-  private static BFilterEditor _filterDialog;
+  private static WeakReference<BFilterEditor> _filterDialog;
 
-  private static BFilter _filter;
+  private static WeakReference<BFilter> _filter;
 
   /**
    * Open a Filter editor.
@@ -40,15 +45,17 @@ public class ResultFilteringUtils {
    * @return a filter or null.
    */
   public static BFilter selectFilter(String dlgHeader,BFilter filter){
-    BFilter filt;
+    BFilterEditor editor;
+    BFilter       filt;
 
-    if(_filterDialog!=null){
-      filt = _filterDialog.getFilter();
+    editor = getFilterDialog();
+    if(editor!=null){
+      filt = editor.getFilter();
 
     }else{
-      _filterDialog=getEditor(filter);
-      filt = _filterDialog.getFilter();
-      _filter=filter;
+      editor=getEditor(filter);
+      _filterDialog=new WeakReference<BFilterEditor>(editor);
+      filt = editor.getFilter();
     }
 
     return filt;
@@ -70,7 +77,7 @@ public class ResultFilteringUtils {
         FilterSystemConfigurator.getFilterFactory(), 
         FilterSystemConfigurator.getRuleFactory());
 
-    _filter=filter;
+    set_filter(filter);
 
     return editor;
   }
@@ -92,7 +99,7 @@ public class ResultFilteringUtils {
         FilterSystemConfigurator.getRuleFactory(),
         showRulesOnly);
 
-    _filter=filter;
+    set_filter(filter);
 
     return editor;
   }
@@ -115,7 +122,7 @@ public class ResultFilteringUtils {
         FilterSystemConfigurator.getRuleFactory(),
         showRulesOnly);
 
-    _filter=filter;
+    set_filter(filter);
 
     return editor;
   }
@@ -124,21 +131,29 @@ public class ResultFilteringUtils {
    * Returns the editor instance created by one of the above method.
    */
   public static BFilterEditor getFilterDialog() {
-    return _filterDialog;
+    return _filterDialog!=null ? _filterDialog.get() : null;
   }
 
   /**
    * Set a filter.
    */
   public static void set_filter(BFilter filter) {
-    _filter = filter;
+    _filter = filter!=null ? new WeakReference<BFilter>(filter) : null;
   }
 
   /**
    * Get a filter.
    */
   public static BFilter get_filter() {
-    return _filter;
+    return _filter!=null ? _filter.get() : null;
+  }
+
+  /**
+   * Forgets the editor and the filter referenced by this class.
+   */
+  public static void release() {
+    _filterDialog = null;
+    _filter = null;
   }
 
 }
@@ -24,18 +24,28 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.ClipboardOwner;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
@@ -44,15 +54,17 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 
 import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
-import bzh.plealog.bioinfo.api.filter.BFilter;
 import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
 import bzh.plealog.bioinfo.io.filter.FilterSerializer;
-import bzh.plealog.bioinfo.io.filter.FilterSerializerException;
-import bzh.plealog.bioinfo.ui.filter.BFilterEditorListener;
+import bzh.plealog.bioinfo.ui.filter.AbstractBFilterRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterDirectoryRepository;
 import bzh.plealog.bioinfo.ui.filter.BFilterEntry;
+import bzh.plealog.bioinfo.ui.filter.BFilterLoader;
+import bzh.plealog.bioinfo.ui.filter.BFilterPackedRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterSampleOverlay;
 import bzh.plealog.bioinfo.ui.filter.BFilterTable;
 import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
-import bzh.plealog.bioinfo.util.ZipUtil;
 
 import com.plealog.genericapp.api.EZApplicationBranding;
 import com.plealog.genericapp.api.EZEnvironment;
@@ -76,7 +88,8 @@ public class FilterManagerUI {
 	private static final String DEVEL_FILTER_SAMPLE_DIR="filter";
 	private static final String FILTER_SAMPLE = "samples.zip";
 	private static final String FILTER_CMD_LINE_ARG = "-f"; 
-	private static final String FILTER_FILE_EXT = "xml";
+	//maximum time to wait for pending filter files to be written on exit (ms)
+	private static final long   FLUSH_TIMEOUT = 10000;
 	
 	private static Properties getVersionProperties(){
 		Properties  props = new Properties();
@@ -126,7 +139,7 @@ public class FilterManagerUI {
 
 	/**
 	 * Prepare the user environment. This method will create the path used to automatically manager
-	 * the filters.
+	 * the filters. Sample filters are not copied there: see openSamples().
 	 * 
 	 * @param appHomePath the absolute path to the application user storage directory
 	 * 
@@ -149,30 +162,6 @@ public class FilterManagerUI {
 				_myLogger.severe(msg);
 				System.exit(1);
 			}
-			else{
-			  //here, we suppose that we are in devel mode: 'filter' directory exists in the project
-				String sourceSample = EZFileUtils.terminatePath(".")+DEVEL_FILTER_SAMPLE_DIR+File.separator+FILTER_SAMPLE;
-				f = new File(sourceSample);
-				if (f.exists()){
-					try (FileInputStream fis = new FileInputStream(f);){
-						ZipUtil.extractAll(fis, path, FILTER_FILE_EXT);
-					}
-					catch (Exception ex){
-						msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.err.2")).format(new Object[]{ex.toString()});
-						_myLogger.warning(msg);
-					}
-				}
-				else{
-					//here, we are in production mode: samples.zip is located in the jar of the application
-					try (InputStream in = FilterMessages.class.getResourceAsStream(FILTER_SAMPLE);){
-						ZipUtil.extractAll(in, path, FILTER_FILE_EXT);
-					}
-					catch (Exception ex){
-						msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.err.2")).format(new Object[]{ex.toString()});
-						_myLogger.warning(msg);
-					}
-				}
-			}
 		}
 		return path;
 	}
@@ -186,9 +175,9 @@ public class FilterManagerUI {
 			//This method is called by the framework to obtain the UI main component to be
 			//displayed in the main frame.
 
-			BFilterEditorListener listener;
 			JPanel                pnl, mainPnl;
 			JLabel                lbl;
+			JProgressBar          progress;
 
 			_textTransfer = new TextTransfer();
 
@@ -203,13 +192,17 @@ public class FilterManagerUI {
 			pnl.add(_field, BorderLayout.SOUTH);
 			pnl.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-			_fTable = new BFilterTable(FilterSystemConfigurator.getFilterableModel(), true, true, false);
-			listener = new BFilterEditorListener();
-			_fTable.addBFilterEditListener(listener);
+			_fTable = new BFilterTable(FilterSystemConfigurator.getFilterableModel(), true, true, true);
 			_fTable.setPreferredSize(new Dimension(800,250));
 			_fTable.addSelectionListener(new MySelectionListener());
 
-			uploadExistingFilters(_fTable, FilterSystemUI.getFilterCentralRepositoryPath());
+			progress = new JProgressBar(0, 100);
+			progress.setVisible(false);
+			pnl.add(progress, BorderLayout.CENTER);
+
+			//the frame shows up at once, then filters are added as they are loaded
+			uploadFiltersInBackground(_fTable, FilterSystemUI.getFilterCentralRepositoryPath(), 
+					FilterSystemUI.isPackedRepositoryRequested(), progress);
 
 			mainPnl.add(pnl, BorderLayout.SOUTH);
 			mainPnl.add(_fTable, BorderLayout.CENTER);
@@ -223,11 +216,26 @@ public class FilterManagerUI {
 
 		@Override
 		public boolean isAboutToQuit() {
+			BFilterRepository repository;
+
+			FilterSystemUI.stopRepositoryWatcher();
+			repository = FilterSystemUI.getFilterRepository();
+			if (repository!=null){
+				//the table may still be deleting filters in the background
+				if (!(_fTable!=null ? _fTable.flush(FLUSH_TIMEOUT) : repository.flush(FLUSH_TIMEOUT))){
+					_myLogger.severe(FilterMessages.getString("FilterManagerUI.err.6"));
+				}
+				repository.close();
+			}
 			return true;
 		}
 
 		@Override
 		public void postStart() {
+			//the repository watcher is started once filters are loaded
+			//the filter editor is built while the user looks at the main frame
+			if (_fTable!=null)
+				_fTable.prewarmEditor();
 		}
 
 		@Override
@@ -236,54 +244,327 @@ public class FilterManagerUI {
 	}
 
 	/**
-	 * Load filters from the filter storage and populates the filter table.
+	 * Opens the sample filters. In devel mode, the samples are read from the
+	 * 'filter' directory of the project; in production mode, they are read 
+	 * from the jar of the application. Returns null if samples cannot be found.
+	 */
+	public static BFilterSampleOverlay openSamples(){
+		URL    resource;
+		File   f;
+		String msg;
+
+		try {
+			//here, we suppose that we are in devel mode: 'filter' directory exists in the project
+			f = new File(EZFileUtils.terminatePath(".")+DEVEL_FILTER_SAMPLE_DIR+File.separator+FILTER_SAMPLE);
+			if (f.exists()){
+				return BFilterSampleOverlay.open(f, FilterSystemConfigurator.getFilterableModel(), 
+						FilterSystemConfigurator.getSerializer());
+			}
+			//here, we are in production mode: samples.zip is located in the jar of the application
+			resource = FilterMessages.class.getResource(FILTER_SAMPLE);
+			if (resource!=null){
+				return BFilterSampleOverlay.open(resource, FilterSystemConfigurator.getFilterableModel(), 
+						FilterSystemConfigurator.getSerializer());
+			}
+		}
+		catch (Exception ex){
+			msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.err.2")).format(new Object[]{ex.toString()});
+			_myLogger.warning(msg);
+		}
+		return null;
+	}
+	/**
+	 * Load filters from the filter storage and populates the filter table. The
+	 * filter storage becomes the central repository storage (see 
+	 * FilterSystemUI.getFilterRepository()).
 	 */
 	public static void uploadExistingFilters(BFilterTable fTable, String filterStoragePath){
-		FilterSerializer  serializer;
-		BFilterEntry         fEntry;
-		BFilter              filter;
-		File                 path, file;
-		File[]               filters;
-		ArrayList<BFilterEntry> fEntries;
-		String               msg;
-		int                  i;
+		BFilterDirectoryRepository repository;
+		List<BFilterEntry>         entries;
+
+		repository = createDirectoryRepository(filterStoragePath);
+		if (repository==null)
+			return;
+		try {
+			entries = repository.loadAll();
+		} catch (IOException e) {//not thrown by a directory repository
+			entries = new ArrayList<BFilterEntry>();
+		}
+		logUpload(repository, entries, 0);
+		installRepository(fTable, repository);
+		fTable.initialize(entries);
+	}
+	/**
+	 * Creates a repository using the filter files located in the filter storage.
+	 * Returns null if no serializer is available.
+	 */
+	private static BFilterDirectoryRepository createDirectoryRepository(String filterStoragePath){
+		BFilterDirectoryRepository repository;
+		FilterSerializer           serializer;
 
 		serializer = FilterSystemConfigurator.getSerializer();
 		if (serializer==null){
 			_myLogger.severe(FilterMessages.getString("FilterManagerUI.err.3"));
-			return;
+			return null;
+		}
+		repository = new BFilterDirectoryRepository(new File(filterStoragePath), 
+				FilterSystemConfigurator.getFilterableModel(), serializer);
+		repository.getLoader().setUseSnapshot(true);
+		repository.getLoader().setLazy(true);
+		setSamples(repository, filterStoragePath);
+		return repository;
+	}
+	/**
+	 * Creates a repository using the pack located in the filter storage.
+	 */
+	private static BFilterPackedRepository createPackedRepository(String filterStoragePath){
+		BFilterPackedRepository repository;
+
+		repository = new BFilterPackedRepository(new File(filterStoragePath), 
+				FilterSystemConfigurator.getFilterableModel(), FilterSystemConfigurator.getSerializer());
+		setSamples(repository, filterStoragePath);
+		return repository;
+	}
+	/**
+	 * Logs some information about the filters loaded from a repository.
+	 * 
+	 * @param time loading time in ms. Only used for repositories that do not
+	 * report it by themselves.
+	 */
+	private static void logUpload(BFilterRepository repository, List<BFilterEntry> entries, long time){
+		BFilterLoader.LoadResult result;
+		BFilterPackedRepository  packed;
+		String                   msg = null;
+
+		if (repository instanceof BFilterDirectoryRepository){
+			result = ((BFilterDirectoryRepository) repository).getLoadResult();
+			if (result!=null && result.getFiles()!=0){
+				msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.msg.3")).format(new Object[]{
+						result.getEntries().size(), result.getFiles(), result.getBytes(), result.getTime(), 
+						result.getFailures().size(), result.getCachedFiles()});
+			}
+		}
+		else if (repository instanceof BFilterPackedRepository){
+			packed = (BFilterPackedRepository) repository;
+			msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.msg.4")).format(new Object[]{
+					entries.size(), packed.getStore().getPackFile().getAbsolutePath(), 
+					packed.getStore().getLength(), time});
+		}
+		if (msg!=null)
+			_myLogger.info(msg);
+	}
+	private static void installRepository(BFilterTable fTable, BFilterRepository repository){
+		FilterSystemUI.setFilterRepository(repository);
+		fTable.setRepository(repository);
+	}
+	private static void setSamples(AbstractBFilterRepository repository, String filterStoragePath){
+		BFilterSampleOverlay samples;
+
+		samples = openSamples();
+		if (samples!=null){
+			repository.setSamples(samples, new File(filterStoragePath));
 		}
-		path = new File(filterStoragePath);
-		filters=path.listFiles();
-		if (filters==null || filters.length==0)
+	}
+	/**
+	 * Load filters from a pack located in the filter storage and populates the
+	 * filter table. If the pack does not exist yet, it is created using the 
+	 * filter files of the filter storage. On success, the pack becomes the 
+	 * central repository storage (see FilterSystemUI.getFilterRepository()).
+	 */
+	public static void uploadPackedFilters(BFilterTable fTable, String filterStoragePath){
+		BFilterPackedRepository repository;
+		List<BFilterEntry>      entries;
+		long                    time;
+
+		time = System.currentTimeMillis();
+		repository = createPackedRepository(filterStoragePath);
+		try {
+			entries = repository.loadAll();
+		} catch (IOException e) {
+			_myLogger.severe(new MessageFormat(FilterMessages.getString("FilterManagerUI.err.7")).format(
+					new Object[]{e.toString()}));
+			uploadExistingFilters(fTable, filterStoragePath);
 			return;
-		//msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.msg.2")).format(new Object[]{new Integer(filters.length)});
-		//_myLogger.info(msg);
-		fEntries = new ArrayList<BFilterEntry>();
-		for(i=0;i<filters.length;i++){
-			file = filters[i];
-			if (file.isDirectory())
-				continue;
+		}
+		logUpload(repository, entries, System.currentTimeMillis()-time);
+		installRepository(fTable, repository);
+		fTable.initialize(entries);
+	}
+	/**
+	 * Load filters from the filter storage in the background, then populates the
+	 * filter table progressively. This method returns immediately. The filter 
+	 * storage becomes the central repository storage once loaded, then the 
+	 * repository watcher is started. The table cannot be edited until then,
+	 * otherwise new filters would not be saved.
+	 * 
+	 * @param fTable the table to populate
+	 * @param filterStoragePath the filter storage
+	 * @param packed true to use a pack, false to use filter files
+	 * @param progress used to report progress. May be null.
+	 * 
+	 * @return false if the repository cannot be created
+	 */
+	public static boolean uploadFiltersInBackground(BFilterTable fTable, String filterStoragePath, 
+			boolean packed, JProgressBar progress){
+		BFilterRepository repository;
+
+		repository = packed ? createPackedRepository(filterStoragePath) : createDirectoryRepository(filterStoragePath);
+		if (repository==null)
+			return false;
+		fTable.setEditable(false);
+		new UploadWorker(fTable, filterStoragePath, repository, progress).execute();
+		return true;
+	}
+	/**
+	 * Loads a repository in the background and publishes its filters to a 
+	 * BFilterTable by chunks, so that the UI remains responsive. The filters of
+	 * a directory are published as soon as the BFilterLoader has read them.
+	 */
+	private static class UploadWorker extends SwingWorker<List<BFilterEntry>, List<BFilterEntry>> 
+			implements BFilterLoader.LoadListener {
+		private BFilterTable      _table;
+		private String            _path;
+		private BFilterRepository _repository;
+		private JProgressBar      _progress;
+		private boolean           _installed;
+		private long              _time;
+		private Set<BFilterEntry> _published;
+		private AtomicInteger     _loadedFiles;
+		//entries added to the table; only used on the EDT
+		private Set<BFilterEntry> _added;
+
+		//number of filters added to the table at once
+		private static final int CHUNK_SIZE = 500;
+
+		public UploadWorker(BFilterTable table, String path, BFilterRepository repository, JProgressBar progress){
+			_table = table;
+			_path = path;
+			_repository = repository;
+			_progress = progress;
+			_published = Collections.synchronizedSet(
+					Collections.newSetFromMap(new IdentityHashMap<BFilterEntry, Boolean>()));
+			_loadedFiles = new AtomicInteger();
+			_added = Collections.newSetFromMap(new IdentityHashMap<BFilterEntry, Boolean>());
+			if (_progress!=null){
+				_progress.setIndeterminate(true);
+				_progress.setStringPainted(true);
+				_progress.setString(FilterMessages.getString("FilterManagerUI.msg.5"));
+				_progress.setVisible(true);
+				addPropertyChangeListener(new PropertyChangeListener() {
+					public void propertyChange(PropertyChangeEvent evt) {
+						if ("progress".equals(evt.getPropertyName())){
+							_progress.setIndeterminate(false);
+							_progress.setValue((Integer) evt.getNewValue());
+						}
+					}
+				});
+			}
+		}
+		@Override
+		public void filesLoaded(List<BFilterEntry> entries, int files, int totalFiles) {
+			int loaded;
+
+			if (!entries.isEmpty()){
+				_published.addAll(entries);
+				publish(entries);
+			}
+			loaded = _loadedFiles.addAndGet(files);
+			setProgress((int) Math.min(100L, (long) loaded*100L/totalFiles));
+		}
+		@Override
+		protected List<BFilterEntry> doInBackground() throws Exception {
+			BFilterDirectoryRepository dirRepository = null;
+			ArrayList<BFilterEntry>    remaining;
+			List<BFilterEntry>         entries;
+			int                        i, size;
+
+			_time = System.currentTimeMillis();
+			if (_repository instanceof BFilterDirectoryRepository){
+				dirRepository = (BFilterDirectoryRepository) _repository;
+				dirRepository.setLoadListener(this);
+			}
 			try {
-				filter = serializer.load(FilterSystemConfigurator.getFilterableModel(), file);
-			} catch (FilterSerializerException e) {
-				msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.msg.4")).format(new Object[]{file.getName(), e.toString()});
-				_myLogger.severe(msg);
-				continue;
+				entries = _repository.loadAll();
+			} finally {
+				if (dirRepository!=null)
+					dirRepository.setLoadListener(null);
+			}
+			_time = System.currentTimeMillis()-_time;
+			//filters that have not been read by the loader: samples, or the
+			//filters of a pack
+			remaining = new ArrayList<BFilterEntry>();
+			for(BFilterEntry entry : entries){
+				if (!_published.contains(entry))
+					remaining.add(entry);
+			}
+			size = remaining.size();
+			for(i=0;i<size;i+=CHUNK_SIZE){
+				publish(remaining.subList(i, Math.min(size, i+CHUNK_SIZE)));
+			}
+			return entries;
+		}
+		private void install(){
+			if (_installed)
+				return;
+			_installed = true;
+			installRepository(_table, _repository);
+			_table.setEditable(true);
+		}
+		@Override
+		protected void process(List<List<BFilterEntry>> chunks) {
+			ArrayList<BFilterEntry> entries;
+
+			//the repository is installed once fully loaded, see done()
+			entries = new ArrayList<BFilterEntry>();
+			for(List<BFilterEntry> chunk : chunks){
+				entries.addAll(chunk);
+			}
+			addToTable(entries);
+		}
+		/**
+		 * Adds to the table the entries it does not contain yet: done() may be
+		 * called before the last chunks are processed.
+		 */
+		private void addToTable(List<BFilterEntry> entries){
+			ArrayList<BFilterEntry> toAdd;
+
+			toAdd = new ArrayList<BFilterEntry>(entries.size());
+			for(BFilterEntry entry : entries){
+				if (_added.add(entry))
+					toAdd.add(entry);
 			}
-			/* I had to do the following clone() call since it appeared that BFilter
-			 * loaded with XStream does not use a constructor!!! So BFilter
-			 * were badly initialized. The clone forces a correct init.
-			 * Todo: check XStream doc to figure out what is wrong.*/
+			_table.initialize(toAdd);
+		}
+		@Override
+		protected void done() {
+			List<BFilterEntry> entries;
+
+			if (_progress!=null)
+				_progress.setVisible(false);
 			try {
-				fEntry = new BFilterEntry(file.getAbsolutePath(), (BFilter) filter.clone());
-				fEntries.add(fEntry);
-			} catch (Exception e) {//Embedded: FilterException
-				msg = new MessageFormat(FilterMessages.getString("FilterManagerUI.msg.4")).format(new Object[]{file.getName(), e.toString()});
-				_myLogger.severe(msg);
+				entries = get();
+			} catch (Exception e) {
+				_myLogger.severe(new MessageFormat(FilterMessages.getString("FilterManagerUI.err.7")).format(
+						new Object[]{e.getCause()!=null ? e.getCause().toString() : e.toString()}));
+				if (_repository instanceof BFilterPackedRepository 
+						&& uploadFiltersInBackground(_table, _path, false, _progress)){
+					return;
+				}
+				//the filters edited from now on are saved anyway
+				install();
+				return;
+			}
+			//the watcher has to see all the filters in the table
+			addToTable(entries);
+			install();
+			logUpload(_repository, entries, _time);
+			try {
+				FilterSystemUI.startRepositoryWatcher();
+			} catch (IOException e) {
+				_myLogger.warning(new MessageFormat(FilterMessages.getString("FilterManagerUI.err.5")).format(
+						new Object[]{e.toString()}));
 			}
 		}
-		fTable.initialize(fEntries);
 	}
 	/**
 	 * Utility class to transfer a string to the system clipboard.
@@ -0,0 +1,322 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.ui.modules.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.ui.filter.BFilterDirectoryRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterEntry;
+import bzh.plealog.bioinfo.ui.filter.BFilterLoader;
+import bzh.plealog.bioinfo.ui.filter.BFilterTableModel;
+
+/**
+ * This class watches the directory of the central filter repository and
+ * applies to a BFilterTableModel the changes made on that directory by
+ * other applications.
+ *
+ * File system events are debounced: they are accumulated until the
+ * directory is quiet for a while, then only the affected files are reloaded
+ * and compared with the repository within the watching thread. The EDT only
+ * receives the resulting changes: the model is updated using row-range
+ * events, and the index of the repository at the same time.
+ *
+ * @author Patrick G. Durand
+ */
+public class FilterRepositoryWatcher implements Runnable {
+	private File              _directory;
+	private BFilterDirectoryRepository _repository;
+	private BFilterTableModel _model;
+	private BFilterLoader     _loader;
+	private WatchService      _watcher;
+	private Thread            _thread;
+	private volatile boolean  _running;
+
+	//events are applied once the directory is quiet for that delay (ms)
+	private static final long DEBOUNCE_DELAY = 500;
+	//maximum number of pending files before forcing an update
+	private static final int  MAX_PENDING = 2000;
+
+	private static Logger _myLogger = Logger.getLogger(FilterRepositoryWatcher.class.getName());
+
+	/**
+	 * Constructor.
+	 *
+	 * @param repository the repository to watch
+	 * @param model the model to update
+	 * @param loader the loader used to read new or modified filter files
+	 */
+	public FilterRepositoryWatcher(BFilterDirectoryRepository repository, BFilterTableModel model, BFilterLoader loader){
+		_repository = repository;
+		_directory = repository.getDirectory();
+		_model = model;
+		_loader = loader;
+	}
+
+	/**
+	 * Starts watching the directory.
+	 */
+	public synchronized void start() throws IOException {
+		if (_running)
+			return;
+		_watcher = FileSystems.getDefault().newWatchService();
+		_directory.toPath().register(_watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		_running = true;
+		_thread = new Thread(this, "FilterRepositoryWatcher");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Stops watching the directory. Pending events are discarded.
+	 */
+	public synchronized void stop(){
+		if (!_running)
+			return;
+		_running = false;
+		try {
+			_watcher.close();
+		} catch (IOException e) {
+			//not a problem at this stage
+		}
+		_thread.interrupt();
+		_thread = null;
+	}
+
+	@Override
+	public void run() {
+		LinkedHashSet<String> pending;
+		WatchKey              key;
+		String                name;
+		boolean               overflow = false;
+
+		pending = new LinkedHashSet<String>();
+		while(_running){
+			try {
+				if (pending.isEmpty() && !overflow)
+					key = _watcher.take();
+				else
+					key = _watcher.poll(DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			} catch (ClosedWatchServiceException e) {
+				break;
+			}
+			if (key==null){//directory is quiet
+				processChanges(pending, overflow);
+				pending = new LinkedHashSet<String>();
+				overflow = false;
+				continue;
+			}
+			for(WatchEvent<?> event : key.pollEvents()){
+				if (event.kind()==StandardWatchEventKinds.OVERFLOW){
+					overflow = true;
+					continue;
+				}
+				name = ((Path) event.context()).toString();
+				if (name.toLowerCase().endsWith(BFilterLoader.FILTER_FILE_EXT))
+					pending.add(name);
+			}
+			if (!key.reset()){
+				_myLogger.warning("Filter directory is no longer accessible: "+_directory);
+				break;
+			}
+			if (pending.size()>=MAX_PENDING){
+				processChanges(pending, overflow);
+				pending = new LinkedHashSet<String>();
+				overflow = false;
+			}
+		}
+		_running = false;
+	}
+
+	/**
+	 * Reloads the files that have changed and forwards them to the EDT.
+	 *
+	 * @param names names of the files that have changed
+	 * @param overflow true if some events have been lost. In such a case the
+	 * full directory is considered as changed.
+	 */
+	private void processChanges(Set<String> names, boolean overflow){
+		ArrayList<File>   toLoad;
+		HashSet<String>   deleted, present;
+		File              file;
+		File[]            files;
+
+		toLoad = new ArrayList<File>();
+		deleted = new HashSet<String>();
+		present = null;
+		if (overflow){
+			//events have been lost: this is the only case where a full scan
+			//of the directory is required
+			present = new HashSet<String>();
+			files = BFilterLoader.listFilterFiles(_directory);
+			for(File f : files){
+				present.add(f.getAbsolutePath());
+				toLoad.add(f);
+			}
+		}
+		else{
+			for(String name : names){
+				file = new File(_directory, name);
+				//empty files are placeholders being written by someone else:
+				//they'll be handled with the next modify event
+				if (file.isFile()){
+					if (file.length()!=0)
+						toLoad.add(file);
+				}
+				else{
+					deleted.add(file.getAbsolutePath());
+				}
+			}
+		}
+		if (toLoad.isEmpty() && deleted.isEmpty() && present==null)
+			return;
+		computeChanges(_loader.load(toLoad.toArray(new File[0])).getEntries(), deleted, present);
+	}
+
+	/**
+	 * Compares the files that have changed with the content of the repository,
+	 * then forwards the changes to the EDT. Entries are looked up through the 
+	 * file name index of the repository, so that the work done depends on the
+	 * number of changed files.
+	 *
+	 * @param loaded entries read from new or modified files
+	 * @param deleted absolute path of deleted files
+	 * @param present absolute path of all the files located in the directory.
+	 * Null if not known.
+	 */
+	private void computeChanges(List<BFilterEntry> loaded, Set<String> deleted, Set<String> present){
+		ArrayList<BFilterEntry>     added, removed;
+		Map<BFilterEntry, BFilter>  updated;
+		BFilterEntry                entry;
+		String                      dirPath;
+
+		added = new ArrayList<BFilterEntry>();
+		updated = new HashMap<BFilterEntry, BFilter>();
+		removed = new ArrayList<BFilterEntry>();
+		for(BFilterEntry newEntry : loaded){
+			entry = _repository.getEntry(newEntry.getFileName());
+			if (entry==null){
+				added.add(newEntry);
+			}
+			//a lazy entry has not been saved by this application: its file has 
+			//been modified by someone else
+			else if (!entry.isLoaded() || !sameContent(entry.getFilter(), newEntry.getFilter())){
+				//not only an echo of a save done by this application
+				updated.put(entry, newEntry.getFilter());
+			}
+		}
+		for(String fName : deleted){
+			entry = _repository.getEntry(fName);
+			if (entry!=null)
+				removed.add(entry);
+		}
+		if (present!=null){
+			dirPath = _directory.getAbsolutePath()+File.separator;
+			for(BFilterEntry e : _repository.getEntries()){
+				if (e.getFileName()!=null && e.getFileName().startsWith(dirPath) 
+						&& !present.contains(e.getFileName()) && !_repository.isUnsavedSample(e))
+					removed.add(e);
+			}
+		}
+		if (added.isEmpty() && updated.isEmpty() && removed.isEmpty())
+			return;
+		SwingUtilities.invokeLater(new ApplyChanges(added, updated, removed));
+	}
+
+	/**
+	 * Returns true if two filters have the same content.
+	 */
+	private static boolean sameContent(BFilter f1, BFilter f2){
+		if (f1==null || f2==null)
+			return false;
+		return f1.getTxtString().equals(f2.getTxtString())
+				&& String.valueOf(f1.getName()).equals(f2.getName())
+				&& String.valueOf(f1.getDescription()).equals(f2.getDescription());
+	}
+
+	/**
+	 * Updates the repository and the model. Must be executed on the EDT.
+	 */
+	private class ApplyChanges implements Runnable {
+		private List<BFilterEntry>         _added;
+		private Map<BFilterEntry, BFilter> _updated;
+		private List<BFilterEntry>         _removed;
+
+		/**
+		 * @param added entries read from new files
+		 * @param updated existing entries, with the BFilter read from their file
+		 * @param removed existing entries whose file has been deleted
+		 */
+		public ApplyChanges(List<BFilterEntry> added, Map<BFilterEntry, BFilter> updated, 
+				List<BFilterEntry> removed){
+			_added = added;
+			_updated = updated;
+			_removed = removed;
+		}
+
+		@Override
+		public void run() {
+			ArrayList<BFilterEntry> added, updated;
+			BFilterEntry            entry;
+
+			added = new ArrayList<BFilterEntry>(_added.size());
+			for(BFilterEntry newEntry : _added){
+				//the file may have been indexed since the changes were computed
+				entry = _repository.getEntry(newEntry.getFileName());
+				if (entry==null)
+					added.add(newEntry);
+				else
+					_updated.put(entry, newEntry.getFilter());
+			}
+			updated = new ArrayList<BFilterEntry>(_updated.size());
+			for(Map.Entry<BFilterEntry, BFilter> e : _updated.entrySet()){
+				e.getKey().setFilter(e.getValue());
+				updated.add(e.getKey());
+			}
+			_repository.storageChanged(added, updated, _removed);
+			_model.removeAll(_removed);
+			_model.updateAll(updated);
+			//the whole batch at once: the next batch looks entries up in the 
+			//repository
+			_model.addAll(added);
+		}
+	}
+}
@@ -16,8 +16,15 @@
  */
 package bzh.plealog.bioinfo.ui.modules.filter;
 
+import java.io.File;
+import java.io.IOException;
+
 import com.plealog.genericapp.api.EZEnvironment;
 
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.ui.filter.BFilterDirectoryRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterLoader;
+import bzh.plealog.bioinfo.ui.filter.BFilterRepository;
 import bzh.plealog.bioinfo.ui.filter.BFilterTableModel;
 import bzh.plealog.bioinfo.ui.filter.resources.FilterMessages;
 
@@ -30,6 +37,14 @@ public class FilterSystemUI {
 	public static BFilterTableModel _filters;
 	public static String _filterCentralRepositoryPath;
 	private static boolean _bInited = false;
+	private static FilterRepositoryWatcher _watcher;
+	private static BFilterRepository _repository;
+
+	/**
+	 * Set this system property to true to store the central repository within
+	 * a single pack file instead of one XML file per filter.
+	 */
+	public static final String PACKED_REPOSITORY_PROPERTY = "filter.repository.packed";
 
 	static{
 		initializeSystem();
@@ -59,4 +74,55 @@ public class FilterSystemUI {
 			String filterCentralRepositoryPath) {
 		FilterSystemUI._filterCentralRepositoryPath = filterCentralRepositoryPath;
 	}
+	/**
+	 * Figures out whether the central repository has to be stored within a
+	 * single pack file. See PACKED_REPOSITORY_PROPERTY.
+	 */
+	public static boolean isPackedRepositoryRequested(){
+		return Boolean.getBoolean(PACKED_REPOSITORY_PROPERTY);
+	}
+	/**
+	 * Returns the storage of the central repository. If none has been set,
+	 * a BFilterDirectoryRepository is created on the central repository path.
+	 * Returns null if that path is not set.
+	 */
+	public static synchronized BFilterRepository getFilterRepository(){
+		if (_repository==null && _filterCentralRepositoryPath!=null){
+			_repository = new BFilterDirectoryRepository(
+					new File(_filterCentralRepositoryPath), 
+					FilterSystemConfigurator.getFilterableModel(), 
+					FilterSystemConfigurator.getSerializer());
+		}
+		return _repository;
+	}
+	public static synchronized void setFilterRepository(BFilterRepository repository){
+		_repository = repository;
+	}
+	/**
+	 * Starts watching the directory of the central repository, so that filters
+	 * added, modified or deleted by other applications are reflected into the
+	 * central repository model. Does nothing if the watcher is already started
+	 * or if the central repository is not stored as a directory of filter files.
+	 */
+	public static synchronized void startRepositoryWatcher() throws IOException {
+		BFilterDirectoryRepository repository;
+
+		if (_watcher!=null || getFilterRepository() instanceof BFilterDirectoryRepository == false)
+			return;
+		repository = (BFilterDirectoryRepository) getFilterRepository();
+		_watcher = new FilterRepositoryWatcher(
+				repository, 
+				getFilterCentralRepository(), 
+				new BFilterLoader(FilterSystemConfigurator.getFilterableModel(), FilterSystemConfigurator.getSerializer()));
+		_watcher.start();
+	}
+	/**
+	 * Stops watching the directory of the central repository.
+	 */
+	public static synchronized void stopRepositoryWatcher(){
+		if (_watcher==null)
+			return;
+		_watcher.stop();
+		_watcher = null;
+	}
 }
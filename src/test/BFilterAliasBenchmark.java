@@ -0,0 +1,156 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.filter.BFilterFactory;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+import bzh.plealog.bioinfo.io.filter.BRuleIO;
+import bzh.plealog.bioinfo.ui.filter.BFilterEntry;
+import bzh.plealog.bioinfo.ui.filter.BFilterMemoryRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterTableModel;
+
+/**
+ * Measures lookups by alias: linear scan of the rows of a BFilterTableModel
+ * (used by BFilterTable when it has no repository) versus the alias index
+ * of a BFilterRepository.
+ *
+ * Usage: BFilterAliasBenchmark [number of filters]
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterAliasBenchmark {
+
+	private static final int SCAN_LOOKUPS = 1000;
+
+	private static BFilterIO createFilterIO(String name){
+		BFilterIO filterIO;
+
+		filterIO = new BFilterIO();
+		filterIO.setName(name);
+		filterIO.setDescription("Benchmark filter");
+		filterIO.setExclusive(true);
+		filterIO.add(new BRuleIO("Hit Accession", "==", "P00001"));
+		return filterIO;
+	}
+
+	private static List<BFilterEntry> createFilters(BOperatorAccessors model, int n) throws Exception {
+		ArrayList<BFilterEntry> entries;
+		BFilterFactory          factory;
+		int                     i;
+
+		factory = FilterSystemConfigurator.getFilterFactory();
+		entries = new ArrayList<BFilterEntry>(n);
+		for(i=0;i<n;i++){
+			entries.add(new BFilterEntry(null, factory.createFilter(model, createFilterIO("bench"+i))));
+		}
+		return entries;
+	}
+
+	private static BFilterEntry scan(BFilterTableModel model, String aliasName){
+		BFilterEntry fEntry;
+		int          i, size;
+
+		size = model.getRowCount();
+		for(i=0;i<size;i++){
+			fEntry = (BFilterEntry) model.getValueAt(i, -1);
+			if (aliasName.equals(fEntry.getName()))
+				return fEntry;
+		}
+		return null;
+	}
+
+	private static void report(String what, int n, long nanos){
+		System.out.println(String.format("%-22s %7d ops in %8.1f ms (%10.3f us/op)",
+				what, n, nanos/1e6, nanos/1e3/Math.max(1, n)));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		BOperatorAccessors      accessors;
+		BFilterTableModel       model;
+		BFilterMemoryRepository repository;
+		List<BFilterEntry>      entries;
+		BFilterFactory          factory;
+		BFilterEntry            entry;
+		long                    time;
+		int                     i, n, found;
+
+		// init API factories (required)
+		CoreSystemConfigurator.initializeSystem();
+		FilterSystemConfigurator.initializeSystem();
+
+		n = args.length!=0 ? Integer.parseInt(args[0]) : 100000;
+		accessors = FilterSystemConfigurator.getFilterableModel();
+		factory = FilterSystemConfigurator.getFilterFactory();
+		entries = createFilters(accessors, n);
+		model = new BFilterTableModel();
+		model.addAll(entries);
+		repository = new BFilterMemoryRepository();
+
+		time = System.nanoTime();
+		repository.saveAll(entries);
+		report("add", n, System.nanoTime()-time);
+
+		//lookups of the last rows: worst case for the scan
+		time = System.nanoTime();
+		found = 0;
+		for(i=0;i<SCAN_LOOKUPS;i++){
+			if (scan(model, "bench"+(n-1-i))!=null)
+				found++;
+		}
+		report("lookup (scan)", found, System.nanoTime()-time);
+
+		time = System.nanoTime();
+		found = 0;
+		for(i=0;i<n;i++){
+			if (repository.getFilter("bench"+i)!=null)
+				found++;
+		}
+		report("lookup (index)", found, System.nanoTime()-time);
+
+		time = System.nanoTime();
+		for(i=0;i<SCAN_LOOKUPS;i++){
+			repository.getFilterAliases();
+		}
+		report("alias list", SCAN_LOOKUPS, System.nanoTime()-time);
+
+		//rename some filters
+		time = System.nanoTime();
+		for(i=0;i<SCAN_LOOKUPS;i++){
+			entry = entries.get(i);
+			entry.setFilter(factory.createFilter(accessors, createFilterIO("renamed"+i)));
+			repository.save(entry);
+		}
+		report("edit", SCAN_LOOKUPS, System.nanoTime()-time);
+		if (repository.getFilter("renamed0")!=entries.get(0) || repository.getFilter("bench0")!=null)
+			throw new IllegalStateException("index not updated on edit");
+
+		time = System.nanoTime();
+		repository.deleteAll(entries.subList(0, SCAN_LOOKUPS));
+		report("remove", SCAN_LOOKUPS, System.nanoTime()-time);
+		if (repository.getFilter("renamed0")!=null || repository.getFilterAliases().size()!=n-SCAN_LOOKUPS)
+			throw new IllegalStateException("index not updated on remove");
+	}
+}
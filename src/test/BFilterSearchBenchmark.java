@@ -0,0 +1,122 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.swing.table.TableRowSorter;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.filter.BFilterFactory;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+import bzh.plealog.bioinfo.io.filter.BRuleIO;
+import bzh.plealog.bioinfo.ui.filter.BFilterEntry;
+import bzh.plealog.bioinfo.ui.filter.BFilterSearchIndex;
+import bzh.plealog.bioinfo.ui.filter.BFilterTableModel;
+
+/**
+ * Measures the search index used by the search field of BFilterTable: time
+ * to index the filters, time to run a query and time to filter the rows of
+ * the table with the result of the query.
+ *
+ * Usage: BFilterSearchBenchmark [number of filters]
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterSearchBenchmark {
+
+	private static final String[] DEFINITIONS = {"kinase", "hypothetical protein", "transporter", 
+		"ribosomal protein", "dehydrogenase", "uncharacterized protein"};
+
+	private static final String[] QUERIES = {"hypothetical", "P01234", "bench4242", "accession p0",
+		"ki", "kinase 1234", "does-not-exist"};
+
+	private static final int RUNS = 20;
+
+	private static List<BFilterEntry> createFilters(BOperatorAccessors model, int n) throws Exception {
+		ArrayList<BFilterEntry> entries;
+		BFilterFactory          factory;
+		BFilterIO               filterIO;
+		int                     i;
+
+		factory = FilterSystemConfigurator.getFilterFactory();
+		entries = new ArrayList<BFilterEntry>(n);
+		for(i=0;i<n;i++){
+			filterIO = new BFilterIO();
+			filterIO.setName("bench"+i);
+			filterIO.setDescription("Select "+DEFINITIONS[i%DEFINITIONS.length]+" hits, set "+i);
+			filterIO.setExclusive(true);
+			filterIO.add(new BRuleIO("Hit Accession", "==", String.format("P%05d", i)));
+			filterIO.add(new BRuleIO("Hit Definition", "::", DEFINITIONS[(i/7)%DEFINITIONS.length]));
+			entries.add(new BFilterEntry(null, factory.createFilter(model, filterIO)));
+		}
+		return entries;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		TableRowSorter<BFilterTableModel> sorter;
+		BFilterSearchIndex                index;
+		BFilterTableModel                 model;
+		List<BFilterEntry>                entries;
+		BitSet                            result;
+		long                              time, searchTime, filterTime;
+		int                               i, n, hits;
+
+		// init API factories (required)
+		CoreSystemConfigurator.initializeSystem();
+		FilterSystemConfigurator.initializeSystem();
+
+		n = args.length!=0 ? Integer.parseInt(args[0]) : 100000;
+		entries = createFilters(FilterSystemConfigurator.getFilterableModel(), n);
+		model = new BFilterTableModel();
+		model.addAll(entries);
+		sorter = new TableRowSorter<BFilterTableModel>(model);
+
+		time = System.currentTimeMillis();
+		index = new BFilterSearchIndex();
+		index.addAll(entries);
+		System.out.println(String.format("indexed %d filters in %d ms", n, System.currentTimeMillis()-time));
+
+		//warm up
+		for(String query : QUERIES){
+			index.search(query);
+			sorter.setRowFilter(index.createRowFilter(query));
+		}
+		for(String query : QUERIES){
+			searchTime = filterTime = 0;
+			hits = 0;
+			for(i=0;i<RUNS;i++){
+				time = System.nanoTime();
+				result = index.search(query);
+				searchTime += System.nanoTime()-time;
+				hits = result.cardinality();
+				time = System.nanoTime();
+				sorter.setRowFilter(index.createRowFilter(query));
+				filterTime += System.nanoTime()-time;
+			}
+			System.out.println(String.format("%-16s %6d hits: search %7.3f ms, search+row filter %7.3f ms (%d rows)", 
+					"'"+query+"'", hits, searchTime/1e6/RUNS, filterTime/1e6/RUNS, sorter.getViewRowCount()));
+		}
+	}
+}
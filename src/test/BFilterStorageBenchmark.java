@@ -0,0 +1,160 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.filter.BOperatorAccessors;
+import bzh.plealog.bioinfo.api.filter.config.FilterSystemConfigurator;
+import bzh.plealog.bioinfo.io.filter.BFilterIO;
+import bzh.plealog.bioinfo.io.filter.BRuleIO;
+import bzh.plealog.bioinfo.io.filter.FilterSerializer;
+import bzh.plealog.bioinfo.ui.filter.BFilterDirectoryRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterEntry;
+import bzh.plealog.bioinfo.ui.filter.BFilterMemoryRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterPackedRepository;
+import bzh.plealog.bioinfo.ui.filter.BFilterRepository;
+
+/**
+ * Compares the BFilterRepository implementations using the same sequence of
+ * operations: bulk save, bulk load, lookup by alias and delete.
+ *
+ * Usage: BFilterStorageBenchmark [number of filters]
+ *
+ * @author Patrick G. Durand
+ */
+public class BFilterStorageBenchmark {
+
+	private static final long FLUSH_TIMEOUT = 600000;
+
+	private static List<BFilterEntry> createFilters(BOperatorAccessors model, int n) throws Exception {
+		ArrayList<BFilterEntry> entries;
+		BFilterIO               filterIO;
+		int                     i;
+
+		entries = new ArrayList<BFilterEntry>();
+		for(i=0;i<n;i++){
+			filterIO = new BFilterIO();
+			filterIO.setName("bench"+i);
+			filterIO.setDescription("Benchmark filter "+i);
+			filterIO.setExclusive(true);
+			filterIO.add(new BRuleIO("Hit Accession", "==", "P"+i));
+			filterIO.add(new BRuleIO("Hit Definition", "::", "kinase"));
+			entries.add(new BFilterEntry(null, 
+					FilterSystemConfigurator.getFilterFactory().createFilter(model, filterIO)));
+		}
+		return entries;
+	}
+
+	private static void report(String backend, String what, int n, long time){
+		System.out.println(String.format("%-10s %-8s %6d filters in %6d ms (%9.0f filters/s)",
+				backend, what, n, time, n*1000d/Math.max(1, time)));
+	}
+
+	private static void deleteDir(File dir){
+		File[] files = dir.listFiles();
+		if (files!=null){
+			for(File f : files)
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Runs the benchmark on a repository.
+	 *
+	 * @param name name of the backend
+	 * @param writer the repository used to save the filters
+	 * @param reader a new instance of the same repository, used to load the filters
+	 */
+	private static void run(String name, BFilterRepository writer, BFilterRepository reader, 
+			List<BFilterEntry> entries) throws Exception {
+		List<BFilterEntry> loaded;
+		long               time;
+		int                i, n, found;
+
+		n = entries.size();
+		writer.loadAll();
+		time = System.currentTimeMillis();
+		writer.saveAll(entries);
+		writer.flush(FLUSH_TIMEOUT);
+		report(name, "save", n, System.currentTimeMillis()-time);
+		writer.close();
+
+		time = System.currentTimeMillis();
+		loaded = reader.loadAll();
+		report(name, "load", loaded.size(), System.currentTimeMillis()-time);
+
+		time = System.currentTimeMillis();
+		found = 0;
+		for(i=0;i<n;i++){
+			if (reader.getFilter("bench"+i)!=null)
+				found++;
+		}
+		report(name, "lookup", found, System.currentTimeMillis()-time);
+
+		time = System.currentTimeMillis();
+		for(i=0;i<loaded.size();i+=2){
+			reader.delete(loaded.get(i));
+		}
+		reader.flush(FLUSH_TIMEOUT);
+		report(name, "delete", (loaded.size()+1)/2, System.currentTimeMillis()-time);
+		reader.close();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		BOperatorAccessors  model;
+		FilterSerializer    serializer;
+		BFilterRepository   memory;
+		File                xmlDir, packDir;
+		int                 n;
+
+		// init API factories (required)
+		CoreSystemConfigurator.initializeSystem();
+		FilterSystemConfigurator.initializeSystem();
+
+		n = args.length!=0 ? Integer.parseInt(args[0]) : 5000;
+		model = FilterSystemConfigurator.getFilterableModel();
+		serializer = FilterSystemConfigurator.getSerializer();
+		xmlDir = Files.createTempDirectory("bft_xml").toFile();
+		packDir = Files.createTempDirectory("bft_pack").toFile();
+
+		try{
+			memory = new BFilterMemoryRepository();
+			run("memory", memory, memory, createFilters(model, n));
+			run("directory", 
+					new BFilterDirectoryRepository(xmlDir, model, serializer), 
+					new BFilterDirectoryRepository(xmlDir, model, serializer), 
+					createFilters(model, n));
+			run("pack", 
+					new BFilterPackedRepository(packDir, model, serializer), 
+					new BFilterPackedRepository(packDir, model, serializer), 
+					createFilters(model, n));
+		}
+		finally{
+			deleteDir(xmlDir);
+			deleteDir(packDir);
+		}
+	}
+}